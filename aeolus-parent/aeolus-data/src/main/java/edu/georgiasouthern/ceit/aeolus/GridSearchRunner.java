@@ -0,0 +1,140 @@
+package edu.georgiasouthern.ceit.aeolus;
+
+import edu.georgiasouthern.ceit.aeolus.kfold.ConfOptimizer;
+import edu.georgiasouthern.ceit.aeolus.kfold.FoldTreeCache;
+import edu.georgiasouthern.ceit.aeolus.kfold.KFoldCalc;
+import edu.georgiasouthern.ceit.aeolus.kfold.KFoldConf;
+import edu.georgiasouthern.ceit.aeolus.kfold.KFoldResult;
+import edu.georgiasouthern.ceit.aeolus.kfold.Metric;
+import edu.georgiasouthern.ceit.aeolus.kfold.SuccessiveHalving;
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+import edu.georgiasouthern.ceit.aeolus.structures.StructureService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the k-fold configuration grid of KFoldCrossValDriver on a single
+ * machine, without Spark. The data set is loaded and partitioned once,
+ * and the fold-labelled KDTree of the partition is built once and shared
+ * by every worker of a work-stealing pool. The whole grid is validated by
+ * one KFoldCalc sweep, whose units of work are chunks of the validation
+ * set of every fold, so all cores stay busy until the last fold is done.
+ * <p>
+ * Usage: GridSearchRunner [threads] [grid | halving | optimize] [seed],
+ * where threads defaults to the number of available processors. With
+ * "halving", the grid is instead searched for its minimum MARE by
+ * SuccessiveHalving, which drops the worst configurations after every
+ * fold. With "optimize", the power and time scale minimizing MARE are
+ * found for each number of neighbors by ConfOptimizer, without any grid.
+ * The partition is shuffled with seed, or with a random seed that is
+ * printed, so that any run can be repeated on the same folds.
+ *
+ * @author Jason Franklin
+ */
+public class GridSearchRunner {
+
+    public static void main(String[] args) throws IOException {
+
+        int threads = args.length > 0 ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        // set the number of folds
+        int folds = 10;
+
+        // create the same k-fold configurations as KFoldCrossValDriver
+        List<KFoldConf> kFoldConfs = new ArrayList<>();
+        for (int N = 3; N <= 7; N++)
+            for (double P = 1.0; Math.abs(P - 5.1) > 0.05; P += 0.1)
+                kFoldConfs.add(new KFoldConf(folds, N, P));
+
+        // generate a partition of all PMPoint records, reproducible from
+        // the seed given as the third argument
+        long seed = args.length > 2 ? Long.parseLong(args[2])
+                                    : new Random().nextLong();
+        System.out.println("Partition seed: " + seed);
+        long start = System.nanoTime();
+        PMPoint[][] partition =
+                new StructureService().getRandomPartition(folds, seed);
+        long loaded = System.nanoTime();
+        KFoldCalc calc = new KFoldCalc(FoldTreeCache.getInstance(), pool);
+
+        if (args.length > 1 && args[1].equals("halving")) {
+            SuccessiveHalving.Result result =
+                    new SuccessiveHalving(calc, Metric.MARE)
+                            .search(partition, kFoldConfs);
+            System.out.println("Optimum Result (MARE): " +
+                    String.format("" + result.getBest().getConf() + " %.7f",
+                            result.getBest().getValue(Metric.MARE)));
+            System.out.println(String.format(
+                    "%d of %d fold evaluations saved in %.3f s",
+                    result.getSavedFoldEvaluations(),
+                    result.getSavedFoldEvaluations() +
+                            result.getFoldEvaluations(),
+                    (System.nanoTime() - loaded) / 1e9));
+            pool.shutdown();
+            return;
+        }
+
+        if (args.length > 1 && args[1].equals("optimize")) {
+            ConfOptimizer.Result result =
+                    new ConfOptimizer(calc, Metric.MARE, folds)
+                            .optimizePowerAndTimeScale(partition, 3, 7,
+                                    2.0, PMPoint.TIME_SCALE);
+            result.getTrace().forEach(r -> System.out.println(
+                    String.format("" + r.getConf() + " %.7f",
+                            r.getValue(Metric.MARE))));
+            System.out.println("Optimum Result (MARE): " +
+                    String.format("" + result.getBest().getConf() + " %.7f",
+                            result.getBest().getValue(Metric.MARE)));
+            System.out.println(String.format(
+                    "%d cross validations in %.3f s",
+                    result.getEvaluations(),
+                    (System.nanoTime() - loaded) / 1e9));
+            pool.shutdown();
+            return;
+        }
+
+        // get every statistic for every configuration at once
+        Metric[] metrics = {Metric.MAE, Metric.MARE, Metric.RMSPE};
+        List<KFoldResult> results =
+                calc.sweep(partition, kFoldConfs, metrics);
+        long validated = System.nanoTime();
+
+        for (Metric m : metrics)
+            report(results, m);
+
+        System.out.println(String.format(
+                "Loaded in %.3f s, validated %d configurations in %.3f s " +
+                        "on %d threads",
+                (loaded - start) / 1e9, results.size(),
+                (validated - loaded) / 1e9, threads));
+        pool.shutdown();
+    }
+
+    /*
+     * Print the value of metric for every configuration, followed by the
+     * configuration with the minimum value.
+     */
+    private static void report(List<KFoldResult> results, Metric metric) {
+
+        // print results to stdout
+        System.out.println(metric.getName() + " Results:\n========");
+        results.forEach(r -> System.out.println(
+                String.format("" + r.getConf().toString() + " %.7f",
+                        r.getValue(metric))));
+
+        // find the minimum and print the result
+        KFoldResult min = results.get(0);
+        for (KFoldResult r : results)
+            if (r.getValue(metric) < min.getValue(metric))
+                min = r;
+        System.out.println("Optimum Result (" + metric.getName() + "): " +
+                String.format("" + min.getConf() + " %.7f",
+                        min.getValue(metric)));
+    }
+}
@@ -0,0 +1,298 @@
+package edu.georgiasouthern.ceit.aeolus.kfold;
+
+import edu.georgiasouthern.ceit.aeolus.structures.KDTree;
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+import edu.georgiasouthern.ceit.aeolus.structures.Partition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A bounded cache of the bootstrap KDTrees used by bagged k-fold cross
+ * validations.
+ * <p>
+ * A bag is an array of node indices into the fold-labelled KDTree of a
+ * partition (see FoldTreeCache), drawn with replacement from the nodes of
+ * one training set, and its tree is built straight from the coordinates
+ * of those nodes; no point is ever copied. The bags of a fold depend only
+ * on the partition, the fold, and the alpha, number of bags and seed of a
+ * KFoldConf, so every configuration that shares those (e.g. a whole
+ * (N, p) grid) shares the same bag trees.
+ * <p>
+ * Each entry holds all bag trees of one fold. At most capacity entries
+ * are kept; the least recently used entry is evicted first. The shared
+ * instance returned by getInstance() holds 64 entries unless the system
+ * property "aeolus.bagTreeCache.capacity" says otherwise.
+ *
+ * @author Jason Franklin
+ */
+public class BagTreeCache {
+
+    private static final BagTreeCache INSTANCE = new BagTreeCache(
+            Integer.getInteger("aeolus.bagTreeCache.capacity", 64));
+
+    // the maximum number of entries kept by this cache
+    private final int capacity;
+
+    // the cached bag trees, in least recently used order
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /**
+     * Allocate an empty BagTreeCache that keeps the bag trees of at most
+     * capacity folds.
+     *
+     * @param capacity the maximum number of entries to keep
+     */
+    public BagTreeCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException();
+        this.capacity = capacity;
+        entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> e) {
+                return size() > BagTreeCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the cache shared by every KFoldCalc in this JVM.
+     *
+     * @return the shared BagTreeCache
+     */
+    public static BagTreeCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Return the bag trees of fold i of partition for the bagging
+     * parameters of conf, building them in pool if this cache does not
+     * hold them yet. The bags are sampled from the training set of fold i
+     * in foldTree, the fold-labelled tree over partition.
+     *
+     * @param partition the partition of all points into folds
+     * @param foldTree the fold-labelled KDTree over partition
+     * @param i the index of the validation fold
+     * @param conf a bagged configuration
+     * @param pool the pool to build the trees in, or null to build them on
+     *             the calling thread
+     * @return the conf.getBAGS() bag trees of fold i
+     * @throws IllegalArgumentException if conf is not bagged, or its alpha
+     *         leaves no measurement in a bag of fold i
+     */
+    public List<KDTree<PMPoint>> getTrees(PMPoint[][] partition,
+                                          KDTree<PMPoint> foldTree, int i,
+                                          KFoldConf conf, ForkJoinPool pool) {
+        return getTrees((Object) partition, foldTree, i, conf, pool);
+    }
+
+    /**
+     * Return the bag trees of fold i of partition for the bagging
+     * parameters of conf, as getTrees() does for a partition array.
+     *
+     * @param partition the partition of all measurements into folds
+     * @param foldTree the fold-labelled KDTree over partition
+     * @param i the index of the validation fold
+     * @param conf a bagged configuration
+     * @param pool the pool to build the trees in, or null to build them on
+     *             the calling thread
+     * @return the conf.getBAGS() bag trees of fold i
+     * @throws IllegalArgumentException if conf is not bagged, or its alpha
+     *         leaves no measurement in a bag of fold i
+     */
+    public List<KDTree<PMPoint>> getTrees(Partition partition,
+                                          KDTree<PMPoint> foldTree, int i,
+                                          KFoldConf conf, ForkJoinPool pool) {
+        return getTrees((Object) partition, foldTree, i, conf, pool);
+    }
+
+    // the bag trees of fold i of a partition array or Partition
+    List<KDTree<PMPoint>> getTrees(Object partition, KDTree<PMPoint> foldTree,
+                                   int i, KFoldConf conf, ForkJoinPool pool) {
+        if (!conf.isBagged())
+            throw new IllegalArgumentException();
+        Key key = new Key(partition, i, conf);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+        }
+        return entry.get(foldTree, i, conf, pool);
+    }
+
+    /**
+     * Discard every tree held by this cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /*
+     * Identifies the bags of one fold by the identity of the partition
+     * array or Partition, the fold and the bagging parameters.
+     */
+    private static class Key {
+
+        private final Object partition;
+        private final int fold;
+        private final double alpha;
+        private final int bags;
+        private final long seed;
+
+        Key(Object partition, int fold, KFoldConf conf) {
+            this.partition = partition;
+            this.fold = fold;
+            alpha = conf.getALPHA();
+            bags = conf.getBAGS();
+            seed = conf.getSEED();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return partition == other.partition &&
+                    fold == other.fold &&
+                    alpha == other.alpha &&
+                    bags == other.bags &&
+                    seed == other.seed;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(partition);
+            result = 31 * result + fold;
+            result = 31 * result + Double.hashCode(alpha);
+            result = 31 * result + bags;
+            result = 31 * result + Long.hashCode(seed);
+            return result;
+        }
+    }
+
+    /*
+     * The bag trees of one fold, built on first use.
+     */
+    private static class Entry {
+
+        private List<KDTree<PMPoint>> trees;
+
+        synchronized List<KDTree<PMPoint>> get(KDTree<PMPoint> foldTree,
+                                               int i, KFoldConf conf,
+                                               ForkJoinPool pool) {
+            if (trees == null) {
+
+                // the nodes of the training set of fold i
+                int count = 0;
+                int[] training = new int[foldTree.size()];
+                for (int m = 0; m < foldTree.size(); m++)
+                    if (foldTree.getLabel(m) != i)
+                        training[count++] = m;
+
+                List<BagTask> tasks = new ArrayList<>();
+                // a bag truncated to nothing would estimate every point
+                // as NaN, so refuse it rather than poison the statistics
+                int size = (int) (count * conf.getALPHA());
+                if (size < 1)
+                    throw new IllegalArgumentException();
+                for (int b = 0; b < conf.getBAGS(); b++)
+                    tasks.add(new BagTask(foldTree, training, count, size,
+                            seed(conf.getSEED(), i, b), pool));
+                if (pool == null)
+                    tasks.forEach(BagTask::compute);
+                else
+                    pool.invoke(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            invokeAll(tasks);
+                        }
+                    });
+
+                List<KDTree<PMPoint>> result = new ArrayList<>();
+                for (BagTask task : tasks)
+                    result.add(task.tree);
+                trees = Collections.unmodifiableList(result);
+            }
+            return trees;
+        }
+
+        /*
+         * Return the seed of bag b of fold i, independent of the build
+         * order. The pair (i, b) is packed into one long, so distinct bags
+         * never share it, and is scrambled with the SplitMix64 finalizer,
+         * a bijection, before and after it is combined with seed. The bags
+         * thus get distinct, well spread seeds rather than the nearly
+         * consecutive ones java.util.Random correlates poorly.
+         */
+        private static long seed(long seed, int i, int b) {
+            return mix(seed ^ mix((long) i << 32 | b));
+        }
+
+        // the finalizer of SplitMix64 (Steele, Lea and Flood, 2014)
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    /*
+     * Samples and builds a single bag tree.
+     */
+    private static class BagTask extends RecursiveAction {
+
+        private final KDTree<PMPoint> foldTree;
+        private final int[] training;
+        private final int count, size;
+        private final long seed;
+        private final ForkJoinPool pool;
+
+        KDTree<PMPoint> tree;
+
+        BagTask(KDTree<PMPoint> foldTree, int[] training, int count,
+                int size, long seed, ForkJoinPool pool) {
+            this.foldTree = foldTree;
+            this.training = training;
+            this.count = count;
+            this.size = size;
+            this.seed = seed;
+            this.pool = pool;
+        }
+
+        @Override
+        protected void compute() {
+
+            // sample the training set with replacement
+            Random random = new Random(seed);
+            int[] bag = new int[size];
+            for (int m = 0; m < size; m++)
+                bag[m] = training[random.nextInt(count)];
+
+            tree = new KDTree<>(foldTree.getDimension());
+            tree.build(foldTree, bag, pool);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package edu.georgiasouthern.ceit.aeolus.kfold;
+
+import edu.georgiasouthern.ceit.aeolus.structures.IdwKernel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of KFoldConf objects prepared for evaluation from a single
+ * neighbor search per validation point. The neighbors of a configuration
+ * with N neighbors are the first N of the largest N in the grid, and the
+ * IDW weights for each distinct power are computed once, so one pass over
+ * the sorted neighbors yields the estimate of every configuration.
+ *
+ * @author Jason Franklin
+ */
+class ConfGrid {
+
+    private final List<KFoldConf> confs;
+
+    // the largest number of neighbors of any configuration
+    private final int maxNeighbors;
+
+    // the distinct powers of the grid, and the power of each configuration
+    private final IdwKernel kernel;
+    private final int[] powerIndex;
+
+    /**
+     * Prepare confs for evaluation.
+     *
+     * @param confs the configurations of the grid
+     * @throws IllegalArgumentException if confs is empty
+     */
+    ConfGrid(List<KFoldConf> confs) {
+        if (confs.isEmpty())
+            throw new IllegalArgumentException();
+        this.confs = confs;
+
+        int neighbors = 0;
+        List<Double> distinct = new ArrayList<>();
+        powerIndex = new int[confs.size()];
+        for (int c = 0; c < confs.size(); c++) {
+            KFoldConf conf = confs.get(c);
+            neighbors = Math.max(neighbors, conf.getNEIGHBORS());
+            if (!distinct.contains(conf.getPOWER()))
+                distinct.add(conf.getPOWER());
+            powerIndex[c] = distinct.indexOf(conf.getPOWER());
+        }
+        maxNeighbors = neighbors;
+        double[] powers = new double[distinct.size()];
+        for (int q = 0; q < powers.length; q++)
+            powers[q] = distinct.get(q);
+        kernel = new IdwKernel(powers);
+    }
+
+    KFoldConf getConf(int c) {
+        return confs.get(c);
+    }
+
+    int getMaxNeighbors() {
+        return maxNeighbors;
+    }
+
+    int size() {
+        return confs.size();
+    }
+
+    /*
+     * Allocate the table filled by estimate(): one row per distinct power,
+     * one column per number of neighbors from 0 to getMaxNeighbors().
+     */
+    double[][] newEstimates() {
+        return new double[kernel.getPowerCount()][maxNeighbors + 1];
+    }
+
+    /*
+     * Fill estimates[q][n] with the IDW estimate from the n nearest of
+     * count neighbors, sorted by increasing squared distance, using the
+     * q-th distinct power.
+     */
+    void estimate(double[] distances, double[] values, int count,
+                  double[][] estimates) {
+        kernel.estimatePrefixes(distances, values, count, estimates);
+    }
+
+    /*
+     * Return the estimate of configuration c from estimates filled for
+     * count neighbors.
+     */
+    double getEstimate(int c, double[][] estimates, int count) {
+        int n = Math.min(confs.get(c).getNEIGHBORS(), count);
+        return estimates[powerIndex[c]][n];
+    }
+}
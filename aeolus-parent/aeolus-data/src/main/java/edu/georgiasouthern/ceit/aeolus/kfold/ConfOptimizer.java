@@ -0,0 +1,338 @@
+package edu.georgiasouthern.ceit.aeolus.kfold;
+
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A derivative-free search for the power and time scale of the best
+ * KFoldConf, for use instead of an exhaustive grid. The objective is the
+ * cross validated value of one statistic. For each number of neighbors
+ * in a range, the power alone is found by golden-section search, or the
+ * power and time scale together by the Nelder-Mead simplex method. Both
+ * need a few dozen cross validations per number of neighbors, where a
+ * grid in steps of 0.1 needs hundreds.
+ * <p>
+ * Every cross validation is recorded in the trace of the Result, in the
+ * order it was run; a point visited twice is validated only once.
+ *
+ * @author Jason Franklin
+ */
+public class ConfOptimizer {
+
+    // the golden ratio conjugate, (sqrt(5) - 1) / 2
+    private static final double PHI = (Math.sqrt(5.0) - 1.0) / 2.0;
+
+    private final KFoldCalc calc;
+    private final ErrorStatistic statistic;
+    private final int folds;
+
+    // width of the final interval or simplex, in power units
+    private final double tolerance;
+
+    // maximum number of cross validations per number of neighbors
+    private final int maxEvaluations;
+
+    /**
+     * Allocate an optimizer that stops once the power is known to within
+     * 0.01, or after 50 cross validations per number of neighbors.
+     *
+     * @param calc the KFoldCalc running each cross validation
+     * @param statistic the statistic to optimize
+     * @param folds the number of folds of every configuration
+     */
+    public ConfOptimizer(KFoldCalc calc, ErrorStatistic statistic,
+                         int folds) {
+        this(calc, statistic, folds, 0.01, 50);
+    }
+
+    /**
+     * Allocate an optimizer.
+     *
+     * @param calc the KFoldCalc running each cross validation
+     * @param statistic the statistic to optimize
+     * @param folds the number of folds of every configuration
+     * @param tolerance the width of the final interval or simplex
+     * @param maxEvaluations the maximum number of cross validations per
+     *                       number of neighbors
+     * @throws IllegalArgumentException if tolerance is not positive or
+     *         maxEvaluations is less than 3
+     */
+    public ConfOptimizer(KFoldCalc calc, ErrorStatistic statistic, int folds,
+                         double tolerance, int maxEvaluations) {
+        if (!(tolerance > 0.0) || maxEvaluations < 3)
+            throw new IllegalArgumentException();
+        this.calc = calc;
+        this.statistic = statistic;
+        this.folds = folds;
+        this.tolerance = tolerance;
+        this.maxEvaluations = maxEvaluations;
+    }
+
+    /**
+     * For each number of neighbors from minNeighbors to maxNeighbors,
+     * find the best power in [minPower, maxPower] at the given time scale
+     * by golden-section search. The objective is assumed to be unimodal
+     * in the power.
+     *
+     * @param partition the partition of all points into folds
+     * @param minNeighbors the smallest number of neighbors to search
+     * @param maxNeighbors the largest number of neighbors to search
+     * @param timeScale the time scale of every configuration
+     * @param minPower the lower end of the power interval
+     * @param maxPower the upper end of the power interval
+     * @return the best configuration found and the trace of the search
+     * @throws IllegalArgumentException if either range is empty
+     */
+    public Result optimizePower(PMPoint[][] partition,
+                                int minNeighbors, int maxNeighbors,
+                                double timeScale,
+                                double minPower, double maxPower) {
+        if (minNeighbors > maxNeighbors || !(minPower < maxPower))
+            throw new IllegalArgumentException();
+        Objective objective = new Objective(partition);
+
+        for (int n = minNeighbors; n <= maxNeighbors; n++) {
+            int budget = objective.trace.size() + maxEvaluations;
+            double a = minPower;
+            double b = maxPower;
+            double x1 = b - PHI * (b - a);
+            double x2 = a + PHI * (b - a);
+            double f1 = objective.value(n, x1, timeScale);
+            double f2 = objective.value(n, x2, timeScale);
+
+            // shrink [a, b] around the minimum, reusing one interior point
+            while (b - a > tolerance && objective.trace.size() < budget) {
+                if (f1 <= f2) {
+                    b = x2;
+                    x2 = x1;
+                    f2 = f1;
+                    x1 = b - PHI * (b - a);
+                    f1 = objective.value(n, x1, timeScale);
+                } else {
+                    a = x1;
+                    x1 = x2;
+                    f1 = f2;
+                    x2 = a + PHI * (b - a);
+                    f2 = objective.value(n, x2, timeScale);
+                }
+            }
+        }
+        return objective.toResult();
+    }
+
+    /**
+     * For each number of neighbors from minNeighbors to maxNeighbors,
+     * find the best power and time scale by the Nelder-Mead simplex
+     * method, starting from (power, timeScale). Both parameters are kept
+     * non-negative. The initial simplex steps 0.5 in power but only a
+     * fraction of that in time scale, whose useful range is much
+     * narrower, so the size of the simplex is measured with the time
+     * scale stretched by the ratio of those steps: the search stops once
+     * the power is known to within the tolerance, and the time scale to
+     * within the same fraction of its first step.
+     *
+     * @param partition the partition of all points into folds
+     * @param minNeighbors the smallest number of neighbors to search
+     * @param maxNeighbors the largest number of neighbors to search
+     * @param power the initial power
+     * @param timeScale the initial time scale
+     * @return the best configuration found and the trace of the search
+     * @throws IllegalArgumentException if the range of neighbors is empty
+     */
+    public Result optimizePowerAndTimeScale(PMPoint[][] partition,
+                                            int minNeighbors,
+                                            int maxNeighbors,
+                                            double power, double timeScale) {
+        if (minNeighbors > maxNeighbors)
+            throw new IllegalArgumentException();
+        Objective objective = new Objective(partition);
+
+        for (int n = minNeighbors; n <= maxNeighbors; n++) {
+            int budget = objective.trace.size() + maxEvaluations;
+
+            // start from a right triangle with legs of about half a step
+            double leg = Math.max(0.05, timeScale / 2.0);
+            double[][] simplex = {
+                    {power, timeScale},
+                    {power + 0.5, timeScale},
+                    {power, timeScale + leg}
+            };
+            double stretch = 0.5 / leg;
+            double[] f = new double[3];
+            for (int v = 0; v < 3; v++)
+                f[v] = objective.value(n, simplex[v][0], simplex[v][1]);
+
+            while (objective.trace.size() < budget &&
+                    size(simplex, stretch) > tolerance) {
+
+                // order the vertices from best to worst
+                sort(simplex, f);
+                double[] centroid = {
+                        (simplex[0][0] + simplex[1][0]) / 2.0,
+                        (simplex[0][1] + simplex[1][1]) / 2.0
+                };
+
+                double[] r = toward(centroid, simplex[2], -1.0);
+                double fr = objective.value(n, r[0], r[1]);
+                if (fr < f[0]) {
+                    double[] e = toward(centroid, simplex[2], -2.0);
+                    double fe = objective.value(n, e[0], e[1]);
+                    if (fe < fr)
+                        replace(simplex, f, e, fe);
+                    else
+                        replace(simplex, f, r, fr);
+                } else if (fr < f[1]) {
+                    replace(simplex, f, r, fr);
+                } else {
+                    double[] c = fr < f[2]
+                            ? toward(centroid, simplex[2], -0.5)
+                            : toward(centroid, simplex[2], 0.5);
+                    double fc = objective.value(n, c[0], c[1]);
+                    if (fc < Math.min(fr, f[2])) {
+                        replace(simplex, f, c, fc);
+                    } else {
+
+                        // shrink toward the best vertex
+                        for (int v = 1; v < 3; v++) {
+                            simplex[v] = toward(simplex[0], simplex[v], 0.5);
+                            f[v] = objective.value(n,
+                                    simplex[v][0], simplex[v][1]);
+                        }
+                    }
+                }
+            }
+        }
+        return objective.toResult();
+    }
+
+    /*
+     * Return from + t * (to - from), clamped to non-negative parameters.
+     */
+    private static double[] toward(double[] from, double[] to, double t) {
+        return new double[] {
+                Math.max(0.0, from[0] + t * (to[0] - from[0])),
+                Math.max(0.0, from[1] + t * (to[1] - from[1]))
+        };
+    }
+
+    // replace the worst vertex of simplex
+    private static void replace(double[][] simplex, double[] f,
+                                double[] vertex, double value) {
+        simplex[2] = vertex;
+        f[2] = value;
+    }
+
+    // sort the three vertices of simplex by increasing value
+    private static void sort(double[][] simplex, double[] f) {
+        for (int i = 1; i < 3; i++)
+            for (int j = i; j > 0 && f[j] < f[j - 1]; j--) {
+                double[] v = simplex[j];
+                simplex[j] = simplex[j - 1];
+                simplex[j - 1] = v;
+                double t = f[j];
+                f[j] = f[j - 1];
+                f[j - 1] = t;
+            }
+    }
+
+    /*
+     * Return the largest distance from the first vertex to another vertex,
+     * in power units, with the time scale multiplied by stretch.
+     */
+    private static double size(double[][] simplex, double stretch) {
+        double result = 0.0;
+        for (int v = 1; v < 3; v++)
+            result = Math.max(result, Math.hypot(
+                    simplex[v][0] - simplex[0][0],
+                    stretch * (simplex[v][1] - simplex[0][1])));
+        return result;
+    }
+
+    /*
+     * The cross validated statistic as a function to minimize, recording
+     * every configuration it validates.
+     */
+    private class Objective {
+
+        private final PMPoint[][] partition;
+        private final List<KFoldResult> trace = new ArrayList<>();
+        private final Map<List<Double>, KFoldResult> seen = new HashMap<>();
+
+        Objective(PMPoint[][] partition) {
+            this.partition = partition;
+        }
+
+        // the statistic at (n, power, timeScale), negated if maximized
+        double value(int n, double power, double timeScale) {
+            List<Double> key = Arrays.asList((double) n, power, timeScale);
+            KFoldResult result = seen.get(key);
+            if (result == null) {
+                result = calc.evaluate(partition,
+                        new KFoldConf(folds, n, power, timeScale), statistic);
+                seen.put(key, result);
+                trace.add(result);
+            }
+            double value = result.getValue(statistic);
+            return statistic.isMaximized() ? -value : value;
+        }
+
+        Result toResult() {
+            KFoldResult best = trace.get(0);
+            for (KFoldResult r : trace)
+                if (statistic.isMaximized()
+                        ? r.getValue(statistic) > best.getValue(statistic)
+                        : r.getValue(statistic) < best.getValue(statistic))
+                    best = r;
+            return new Result(best, trace);
+        }
+    }
+
+    /**
+     * The outcome of a ConfOptimizer search.
+     */
+    public static class Result {
+
+        private final KFoldResult best;
+        private final List<KFoldResult> trace;
+
+        Result(KFoldResult best, List<KFoldResult> trace) {
+            this.best = best;
+            this.trace = Collections.unmodifiableList(trace);
+        }
+
+        /**
+         * Return the best configuration validated by the search.
+         *
+         * @return the result of the best configuration
+         */
+        public KFoldResult getBest() {
+            return best;
+        }
+
+        /**
+         * Return the result of every cross validation run by the search,
+         * in the order they were run.
+         *
+         * @return the trace of the search
+         */
+        public List<KFoldResult> getTrace() {
+            return trace;
+        }
+
+        public int getEvaluations() {
+            return trace.size();
+        }
+
+        @Override
+        public String toString() {
+            return "Best " + best + " after " + trace.size() +
+                    " cross validations";
+        }
+    }
+}
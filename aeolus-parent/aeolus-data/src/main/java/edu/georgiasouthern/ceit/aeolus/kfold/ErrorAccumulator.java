@@ -0,0 +1,35 @@
+package edu.georgiasouthern.ceit.aeolus.kfold;
+
+/**
+ * A streaming reduction of the (estimate, observed) pairs produced while
+ * validating a single fold. Accumulators are created by an ErrorStatistic,
+ * fed one pair at a time, and finally asked for the statistic's value.
+ *
+ * @author Jason Franklin
+ */
+public interface ErrorAccumulator {
+
+    /**
+     * Add the estimate and the observed value at one validation point.
+     *
+     * @param estimate the interpolated value at the point
+     * @param observed the measured value at the point
+     */
+    void add(double estimate, double observed);
+
+    /**
+     * Fold the pairs seen by other, an accumulator created by the same
+     * ErrorStatistic, into this accumulator, as if they had been added
+     * here after the pairs already seen.
+     *
+     * @param other the accumulator to merge into this one
+     */
+    void merge(ErrorAccumulator other);
+
+    /**
+     * Return the value of the statistic over all pairs seen so far.
+     *
+     * @return the value of the statistic
+     */
+    double getValue();
+}
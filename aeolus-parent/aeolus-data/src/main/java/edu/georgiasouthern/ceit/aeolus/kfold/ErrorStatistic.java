@@ -0,0 +1,39 @@
+package edu.georgiasouthern.ceit.aeolus.kfold;
+
+import java.io.Serializable;
+
+/**
+ * An error statistic that KFoldCalc can compute for every fold of a
+ * cross validation. The statistic of a whole cross validation is the
+ * average of its per-fold values.
+ * <p>
+ * The statistics used in our comparisons are provided by Metric, but
+ * any implementation of this interface may be passed to
+ * KFoldCalc.evaluate().
+ *
+ * @author Jason Franklin
+ */
+public interface ErrorStatistic extends Serializable {
+
+    /**
+     * Return a short name for this statistic, such as "MAE".
+     *
+     * @return the name of this statistic
+     */
+    String getName();
+
+    /**
+     * Return a new, empty accumulator for the pairs of one fold.
+     *
+     * @return a new accumulator for this statistic
+     */
+    ErrorAccumulator newAccumulator();
+
+    /**
+     * Return true if larger values of this statistic are better, as for
+     * an R-squared statistic, and false if smaller values are better.
+     *
+     * @return whether this statistic is maximized
+     */
+    boolean isMaximized();
+}
@@ -0,0 +1,240 @@
+package edu.georgiasouthern.ceit.aeolus.kfold;
+
+import edu.georgiasouthern.ceit.aeolus.structures.KDTree;
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+import edu.georgiasouthern.ceit.aeolus.structures.Partition;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A bounded cache of the fold-labelled KDTrees used by k-fold cross
+ * validations.
+ * <p>
+ * Rather than one tree per training set, a partition gets a single
+ * KDTree over all of its points, each labelled with the index of its row.
+ * Searching that tree while excluding label i finds neighbors in the
+ * training set of fold i, so the tree depends only on the partition, never
+ * on the fold, the number of neighbors or the power of a KFoldConf. Trees
+ * are keyed by the identity of the partition array or Partition, and every
+ * configuration evaluated in the same JVM against the same partition (e.g.
+ * the broadcast value on a Spark executor) shares them.
+ * <p>
+ * Every tree is built over a Partition, and its nodes hold handles into
+ * the store of the Partition rather than points. A partition array is
+ * first copied into a Partition of its own, returned by getPartition()
+ * and cached with its tree.
+ * <p>
+ * At most capacity trees are kept; the least recently used tree is
+ * evicted first. The shared instance returned by getInstance() holds 32
+ * trees unless the system property "aeolus.foldTreeCache.capacity" says
+ * otherwise. Each tree is built exactly once, by the first thread that
+ * asks for it, while other threads asking for the same tree wait.
+ *
+ * @author Jason Franklin
+ */
+public class FoldTreeCache {
+
+    private static final FoldTreeCache INSTANCE = new FoldTreeCache(
+            Integer.getInteger("aeolus.foldTreeCache.capacity", 32));
+
+    // the maximum number of trees kept by this cache
+    private final int capacity;
+
+    // the cached trees, in least recently used order
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /**
+     * Allocate an empty FoldTreeCache that keeps at most capacity trees.
+     *
+     * @param capacity the maximum number of trees to keep
+     */
+    public FoldTreeCache(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException();
+        this.capacity = capacity;
+        entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> e) {
+                return size() > FoldTreeCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the cache shared by every KFoldCalc in this JVM.
+     *
+     * @return the shared FoldTreeCache
+     */
+    public static FoldTreeCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Return the KDTree over every point of partition, labelled with the
+     * index of its row, building it if this cache does not hold it yet.
+     *
+     * @param partition the partition of all points into at most 64 folds
+     * @return the fold-labelled KDTree over partition
+     */
+    public KDTree<PMPoint> getTree(PMPoint[][] partition) {
+        return getTree(partition, null);
+    }
+
+    /**
+     * Return the KDTree over every point of partition, as getTree(partition)
+     * does, building it in pool if this cache does not hold it yet.
+     *
+     * @param partition the partition of all points into at most 64 folds
+     * @param pool the pool to build the tree in, or null to build it on the
+     *             calling thread
+     * @return the fold-labelled KDTree over partition
+     */
+    public KDTree<PMPoint> getTree(PMPoint[][] partition, ForkJoinPool pool) {
+        return getEntry(partition).getTree(pool);
+    }
+
+    /**
+     * Return the Partition equivalent to partition (see Partition.of())
+     * over which getTree(partition) builds its tree, copying partition if
+     * this cache does not hold the copy yet. Handles of the copy are the
+     * positions of the points of partition, row after row.
+     *
+     * @param partition the partition of all points into folds
+     * @return the Partition holding a copy of partition
+     */
+    public Partition getPartition(PMPoint[][] partition) {
+        return getEntry(partition).getPartition();
+    }
+
+    /**
+     * Return the KDTree over every measurement of partition, labelled with
+     * the index of its fold, building it if this cache does not hold it
+     * yet.
+     *
+     * @param partition the partition of all measurements into at most 64
+     *                  folds
+     * @return the fold-labelled KDTree over partition
+     */
+    public KDTree<PMPoint> getTree(Partition partition) {
+        return getTree(partition, null);
+    }
+
+    /**
+     * Return the KDTree over every measurement of partition, as
+     * getTree(partition) does, building it in pool if this cache does not
+     * hold it yet.
+     *
+     * @param partition the partition of all measurements into at most 64
+     *                  folds
+     * @param pool the pool to build the tree in, or null to build it on the
+     *             calling thread
+     * @return the fold-labelled KDTree over partition
+     */
+    public KDTree<PMPoint> getTree(Partition partition, ForkJoinPool pool) {
+        return getEntry(partition).getTree(pool);
+    }
+
+    // the Partition of a partition array or Partition
+    Partition getPartition(Object source) {
+        return getEntry(source).getPartition();
+    }
+
+    // the tree of a partition array or Partition
+    KDTree<PMPoint> getTree(Object source, ForkJoinPool pool) {
+        return getEntry(source).getTree(pool);
+    }
+
+    // the entry of source, added to this cache if it is missing
+    private Entry getEntry(Object source) {
+        Key key = new Key(source);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(source);
+                entries.put(key, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Discard every tree held by this cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /*
+     * Identifies a partition array or Partition by its identity.
+     */
+    private static class Key {
+
+        private final Object partition;
+
+        Key(Object partition) {
+            this.partition = partition;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return partition == other.partition;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(partition);
+        }
+    }
+
+    /*
+     * A cached Partition and tree, each built on first use.
+     */
+    private static class Entry {
+
+        private final Object source;
+        private Partition partition;
+        private KDTree<PMPoint> tree;
+
+        Entry(Object source) {
+            this.source = source;
+        }
+
+        synchronized Partition getPartition() {
+            if (partition == null)
+                partition = source instanceof Partition ? (Partition) source
+                        : Partition.of((PMPoint[][]) source);
+            return partition;
+        }
+
+        synchronized KDTree<PMPoint> getTree(ForkJoinPool pool) {
+            if (tree == null) {
+
+                // label each measurement by its fold
+                Partition p = getPartition();
+                tree = KDTree.fromStore(p.getStore(), p.getHandles(),
+                        p.getLabels(), pool);
+            }
+            return tree;
+        }
+    }
+}
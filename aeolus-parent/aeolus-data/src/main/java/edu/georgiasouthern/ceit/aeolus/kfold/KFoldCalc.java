@@ -4,338 +4,657 @@ import edu.georgiasouthern.ceit.aeolus.structures.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
 
 /**
  * A class that performs k-fold cross validations which generate
- * average MARE and RMSPE error statistics for a given partition and
- * KFoldConf configuration object.
+ * average error statistics (MAE, MARE, RMSPE, etc.) for a given
+ * partition and KFoldConf configuration object. Any number of
+ * statistics can be computed in one pass with evaluate().
+ * <p>
+ * Neighbors are searched for in a single fold-labelled KDTree per
+ * partition, taken from a FoldTreeCache; excluding the label of the
+ * validation fold restricts a search to its training set. The tree is
+ * built once per partition rather than once per fold and configuration.
+ * <p>
+ * Every method taking a partition array has a twin taking a Partition,
+ * whose folds are ranges of handles into a PointStore. Both validate the
+ * same way: the points of a partition array are copied once into a
+ * Partition cached with its tree, and validation reads measurements
+ * through their handles, without building any training set.
+ * <p>
+ * A bagged KFoldConf instead averages the estimates of its bag trees,
+ * taken from a BagTreeCache: m trees per fold, each over a bootstrap
+ * sample of node indices of the fold tree, shared by every configuration
+ * with the same alpha, m and seed. A configuration whose alpha leaves a
+ * bag without a single node is rejected with an IllegalArgumentException
+ * rather than estimating every point as NaN.
  *
  * @author Jason Franklin
  */
 public class KFoldCalc {
 
-    /*
-     * Mean Absolute Error
-     */
-    public double MAE(PMPoint[][] partition, KFoldConf conf) {
-
-        double[] results = new double[conf.getFOLDS()];
-
-        for (int i = 0; i < results.length; i++) {
-
-            // single out validationSet and trainingSet
-            List<PMPoint> validationSet = Arrays.asList(partition[i]);
-            List<PMPoint> trainingSet = new ArrayList<>();
-
-            // join sets into trainingSet, as required
-            for (int j = 0; j < partition.length; j++)
-                if (j != i)
-                    trainingSet.addAll(Arrays.asList(partition[j]));
+    // number of validation points per unit of parallel work
+    private static final int CHUNK = 1 << 10;
 
-            // build a KDTree from trainingSet
-            KDTree<PMPoint> kdtree = new KDTree<>(3);
-            kdtree.build(trainingSet);
+    // source of the fold-labelled KDTree of each partition
+    private final FoldTreeCache cache;
 
-            // compute result for this validation set
-            for (PMPoint p : validationSet) {
-                NearestNeighborList<PMPoint> nnl =
-                        kdtree.getNearestNeighbors(conf.getNEIGHBORS(), p);
-                results[i] += Math.abs(p.getEstimate(nnl, conf.getPOWER()) -
-                        p.get(3));
-            }
-            results[i] /= validationSet.size();
-        }
+    // source of the bag trees of each fold of a bagged configuration
+    private final BagTreeCache bags;
 
-        // average the results for each set in the partition
-        double result = 0.0;
-        for (double r : results) result += r;
-        result /= results.length;
+    // pool for parallel work, or null to work on the calling thread
+    private final ForkJoinPool pool;
 
-        // return average
-        return result;
+    /**
+     * Allocate a KFoldCalc that shares fold trees with every other
+     * KFoldCalc in this JVM.
+     */
+    public KFoldCalc() {
+        this(FoldTreeCache.getInstance(), null);
     }
 
-    /*
-    * Mean Absolute Error plus write to standard out.
-    */
-    public double writeAndMAE(PMPoint[][] partition, KFoldConf conf) {
-
-        double[] results = new double[conf.getFOLDS()];
+    /**
+     * Allocate a KFoldCalc that takes its fold trees from cache and runs
+     * parallel work in pool: the build of each fold tree, the folds of
+     * evaluate() and sweep(), cut into chunks of validation points, and
+     * the batch search of leaveOneOut().
+     * Results do not depend on whether a pool is given.
+     *
+     * @param cache the cache of fold trees to use
+     * @param pool the pool for parallel work, or null to do all work on
+     *             the calling thread
+     */
+    public KFoldCalc(FoldTreeCache cache, ForkJoinPool pool) {
+        this.cache = cache;
+        this.pool = pool;
+        bags = BagTreeCache.getInstance();
+    }
 
-        for (int i = 0; i < results.length; i++) {
+    /**
+     * Perform a single pass of k-fold cross validation over partition,
+     * computing every statistic in statistics from the same neighbor
+     * searches and estimates. Each fold tree is visited once and each
+     * validation point is searched once, however many statistics are
+     * requested.
+     *
+     * @param partition the partition of all points into folds
+     * @param conf the configuration to validate
+     * @param statistics the statistics to compute
+     * @return the per-fold values of every statistic
+     */
+    public KFoldResult evaluate(PMPoint[][] partition, KFoldConf conf,
+                                ErrorStatistic... statistics) {
+        return sweep(partition, Collections.singletonList(conf),
+                statistics).get(0);
+    }
 
-            // single out validationSet and trainingSet
-            List<PMPoint> validationSet = Arrays.asList(partition[i]);
-            List<PMPoint> trainingSet = new ArrayList<>();
+    /**
+     * Perform k-fold cross validation over partition for every
+     * configuration in confs at once. For each validation point the
+     * largest number of neighbors in confs is searched once; the
+     * neighbors of a smaller configuration are a prefix of that sorted
+     * list, and the IDW weights for each distinct power are computed once
+     * and summed prefix by prefix. A whole (N, p) grid then costs about
+     * as much tree work as a single configuration.
+     * <p>
+     * Bagged configurations are validated together with every other
+     * configuration of the same bags, and searched once per bag tree.
+     * Configurations at different time scales are searched separately,
+     * but in the same trees, with the time axis weighted to match. The
+     * estimates are the ones evaluate() computes for each configuration
+     * on its own.
+     *
+     * @param partition the partition of all points into folds
+     * @param confs the configurations to validate, all with the same
+     *              number of folds
+     * @param statistics the statistics to compute
+     * @return the result of each configuration, in the order of confs
+     * @throws IllegalArgumentException if confs is empty or its
+     *         configurations differ in their number of folds
+     */
+    public List<KFoldResult> sweep(PMPoint[][] partition,
+                                   List<KFoldConf> confs,
+                                   ErrorStatistic... statistics) {
+        return sweep(partition, confs, allFolds(confs), statistics);
+    }
 
-            // join sets into trainingSet, as required
-            for (int j = 0; j < partition.length; j++)
-                if (j != i)
-                    trainingSet.addAll(Arrays.asList(partition[j]));
+    /**
+     * Perform cross validation over partition for every configuration in
+     * confs, as sweep(partition, confs, statistics) does, but validate
+     * only the given folds. Each result holds one value per statistic for
+     * each of those folds, in the order of folds, so getValue() is the
+     * mean over those folds only. Validating the folds of a configuration
+     * a few at a time, as SuccessiveHalving does, gives the same fold
+     * values as validating them all at once.
+     *
+     * @param partition the partition of all points into folds
+     * @param confs the configurations to validate, all with the same
+     *              number of folds
+     * @param folds the indices of the validation folds
+     * @param statistics the statistics to compute
+     * @return the result of each configuration, in the order of confs
+     * @throws IllegalArgumentException if confs is empty or its
+     *         configurations differ in their number of folds
+     * @throws IndexOutOfBoundsException if a fold is not a fold of confs
+     */
+    public List<KFoldResult> sweep(PMPoint[][] partition,
+                                   List<KFoldConf> confs, int[] folds,
+                                   ErrorStatistic... statistics) {
+        return sweep((Object) partition, confs, folds, statistics);
+    }
 
-            // build a KDTree from trainingSet
-            KDTree<PMPoint> kdtree = new KDTree<>(3);
-            kdtree.build(trainingSet);
+    /**
+     * Perform a single pass of k-fold cross validation over partition, as
+     * evaluate() does for a partition array.
+     *
+     * @param partition the partition of all measurements into folds
+     * @param conf the configuration to validate
+     * @param statistics the statistics to compute
+     * @return the per-fold values of every statistic
+     */
+    public KFoldResult evaluate(Partition partition, KFoldConf conf,
+                                ErrorStatistic... statistics) {
+        return sweep(partition, Collections.singletonList(conf),
+                statistics).get(0);
+    }
 
-            System.out.println("FOLD " + i + "=====================================");
-            // compute result for this validation set
-            for (PMPoint p : validationSet) {
-                NearestNeighborList<PMPoint> nnl =
-                        kdtree.getNearestNeighbors(conf.getNEIGHBORS(), p);
-                double est = p.getEstimate(nnl, conf.getPOWER());
-                results[i] += Math.abs(est - p.get(3));
-                System.out.println(p.get(0) + "\t" +
-                                   p.get(1) + "\t" +
-                                   p.get(2) + "\t" +
-                                   p.get(3) + "\t" + est);
-            }
-            System.out.println("===================================================\n");
-            results[i] /= validationSet.size();
-        }
+    /**
+     * Perform k-fold cross validation over partition for every
+     * configuration in confs at once, as sweep() does for a partition
+     * array.
+     *
+     * @param partition the partition of all measurements into folds
+     * @param confs the configurations to validate, all with the same
+     *              number of folds
+     * @param statistics the statistics to compute
+     * @return the result of each configuration, in the order of confs
+     * @throws IllegalArgumentException if confs is empty or its
+     *         configurations differ in their number of folds
+     */
+    public List<KFoldResult> sweep(Partition partition,
+                                   List<KFoldConf> confs,
+                                   ErrorStatistic... statistics) {
+        return sweep(partition, confs, allFolds(confs), statistics);
+    }
 
-        // average the results for each set in the partition
-        double result = 0.0;
-        for (double r : results) result += r;
-        result /= results.length;
+    /**
+     * Perform cross validation over the given folds of partition for
+     * every configuration in confs, as sweep() does for a partition array.
+     *
+     * @param partition the partition of all measurements into folds
+     * @param confs the configurations to validate, all with the same
+     *              number of folds
+     * @param folds the indices of the validation folds
+     * @param statistics the statistics to compute
+     * @return the result of each configuration, in the order of confs
+     * @throws IllegalArgumentException if confs is empty or its
+     *         configurations differ in their number of folds
+     * @throws IndexOutOfBoundsException if a fold is not a fold of confs
+     */
+    public List<KFoldResult> sweep(Partition partition,
+                                   List<KFoldConf> confs, int[] folds,
+                                   ErrorStatistic... statistics) {
+        return sweep((Object) partition, confs, folds, statistics);
+    }
 
-        // return average
-        return result;
+    // the indices of every fold of the configurations in confs
+    private static int[] allFolds(List<KFoldConf> confs) {
+        if (confs.isEmpty())
+            throw new IllegalArgumentException();
+        int[] folds = new int[confs.get(0).getFOLDS()];
+        for (int i = 0; i < folds.length; i++)
+            folds[i] = i;
+        return folds;
     }
 
     /*
-     * Mean Absolute Relative Error
+     * Validate confs over the given folds of source, a partition array or
+     * a Partition, which keys its trees in the caches.
      */
-    public double MARE(PMPoint[][] partition, KFoldConf conf) {
-
-        double[] results = new double[conf.getFOLDS()];
-
-        for (int i = 0; i < results.length; i++) {
-
-            // single out validationSet and trainingSet
-            List<PMPoint> validationSet = Arrays.asList(partition[i]);
-            List<PMPoint> trainingSet = new ArrayList<>();
-
-            // join sets into trainingSet, as required
-            for (int j = 0; j < partition.length; j++)
-                if (j != i)
-                    trainingSet.addAll(Arrays.asList(partition[j]));
-
-            // build a KDTree from trainingSet
-            KDTree<PMPoint> kdtree = new KDTree<>(3);
-            kdtree.build(trainingSet);
+    private List<KFoldResult> sweep(Object source, List<KFoldConf> confs,
+                                    int[] folds,
+                                    ErrorStatistic[] statistics) {
+
+        if (confs.isEmpty())
+            throw new IllegalArgumentException();
+        int foldCount = confs.get(0).getFOLDS();
+        for (KFoldConf conf : confs)
+            if (conf.getFOLDS() != foldCount)
+                throw new IllegalArgumentException();
+        for (int i : folds)
+            if (i < 0 || i >= foldCount)
+                throw new IndexOutOfBoundsException();
+
+        // validate each group of confs sharing the same neighbors at once
+        return byGroup(confs, KFoldConf::sharesNeighbors, group ->
+                validate(source, new ConfGrid(group), folds, statistics,
+                        null));
+    }
 
-            // compute result for this validation set
-            for (PMPoint p : validationSet) {
-                NearestNeighborList<PMPoint> nnl =
-                        kdtree.getNearestNeighbors(conf.getNEIGHBORS(), p);
-                results[i] += (Math.abs(p.getEstimate(nnl, conf.getPOWER()) -
-                        p.get(3)) / p.get(3));
-            }
-            results[i] /= validationSet.size();
+    /*
+     * Split confs into groups of configurations that are equivalent under
+     * same, validate each group, and return the results in the order of
+     * confs.
+     */
+    private static List<KFoldResult> byGroup(
+            List<KFoldConf> confs, BiPredicate<KFoldConf, KFoldConf> same,
+            Function<List<KFoldConf>, List<KFoldResult>> validate) {
+        KFoldResult[] results = new KFoldResult[confs.size()];
+        boolean[] done = new boolean[confs.size()];
+        for (int c = 0; c < confs.size(); c++) {
+            if (done[c])
+                continue;
+            List<Integer> members = new ArrayList<>();
+            List<KFoldConf> group = new ArrayList<>();
+            for (int d = c; d < confs.size(); d++)
+                if (!done[d] && same.test(confs.get(c), confs.get(d))) {
+                    done[d] = true;
+                    members.add(d);
+                    group.add(confs.get(d));
+                }
+            List<KFoldResult> groupResults = validate.apply(group);
+            for (int g = 0; g < members.size(); g++)
+                results[members.get(g)] = groupResults.get(g);
         }
-
-        // average the results for each set in the partition
-        double result = 0.0;
-        for (double r : results) result += r;
-        result /= results.length;
-
-        // return average
-        return result;
+        return Arrays.asList(results);
     }
 
     /*
-     * Mean Square Error
+     * Validate every configuration of grid, which all share the same
+     * neighbors, over the given folds of source. Each
+     * validation point is estimated from the fold tree, excluding its
+     * fold, or as the mean of its estimates from the bag trees of its
+     * fold. Each validation set is cut into chunks of CHUNK points,
+     * each chunk feeds accumulators of its own, and the accumulators of a
+     * fold are merged in chunk order. The chunks run in the pool, if
+     * there is one, but the merge order never depends on it, so every
+     * result is the same with or without a pool. If recorded is not null,
+     * recorded[f][m] is set to the estimate of the first configuration of
+     * grid at measurement m of fold folds[f].
      */
-    public double MSE(PMPoint[][] partition, KFoldConf conf) {
+    private List<KFoldResult> validate(Object source, ConfGrid grid,
+                                       int[] folds,
+                                       ErrorStatistic[] statistics,
+                                       double[][] recorded) {
+
+        Partition partition = cache.getPartition(source);
+        KDTree<PMPoint> kdtree = cache.getTree(source, pool);
+        KFoldConf sample = grid.getConf(0);
+        List<Chunk> chunks = new ArrayList<>();
+        int[] firstChunk = new int[folds.length + 1];
+        for (int f = 0; f < folds.length; f++) {
+            int i = folds[f];
+
+            // the trees that make up the training set of fold i
+            List<KDTree<PMPoint>> trees = sample.isBagged()
+                    ? bags.getTrees(source, kdtree, i, sample, pool)
+                    : Collections.singletonList(kdtree);
+            int excluded = sample.isBagged() ? -1 : i;
+
+            firstChunk[f] = chunks.size();
+            int size = partition.getFoldSize(i);
+            for (int lo = 0; lo < size; lo += CHUNK)
+                chunks.add(new Chunk(trees, excluded, sample.getWeights(),
+                        grid, statistics, partition, i, lo,
+                        Math.min(lo + CHUNK, size),
+                        recorded == null ? null : recorded[f]));
+        }
+        firstChunk[folds.length] = chunks.size();
+
+        if (pool == null || chunks.size() < 2)
+            for (Chunk chunk : chunks)
+                chunk.validate();
+        else
+            pool.invoke(new ChunkTask(chunks, 0, chunks.size()));
+
+        double[][][] foldValues =
+                new double[grid.size()][statistics.length][folds.length];
+        for (int f = 0; f < folds.length; f++) {
+
+            // an empty validationSet keeps fresh accumulators
+            ErrorAccumulator[][] accumulators =
+                    newAccumulators(grid.size(), statistics);
+            for (int m = firstChunk[f]; m < firstChunk[f + 1]; m++)
+                for (int c = 0; c < grid.size(); c++)
+                    for (int s = 0; s < statistics.length; s++)
+                        accumulators[c][s].merge(
+                                chunks.get(m).accumulators[c][s]);
+
+            for (int c = 0; c < grid.size(); c++)
+                for (int s = 0; s < statistics.length; s++)
+                    foldValues[c][s][f] = accumulators[c][s].getValue();
+        }
 
-        double[] results = new double[conf.getFOLDS()];
+        return toResults(grid, statistics, foldValues);
+    }
 
-        for (int i = 0; i < results.length; i++) {
+    /**
+     * Perform leave-one-out cross validation over all points of partition
+     * for every configuration in confs: each point is estimated from its
+     * nearest neighbors among all other points. A single tree over all
+     * points is searched for N + 1 neighbors of each of its own points,
+     * as one batch in Morton order (split across the pool of this
+     * KFoldCalc, if it has one), and each point is then dropped from its
+     * own neighbors. As in sweep(), one search per point serves every
+     * configuration.
+     * <p>
+     * The number of folds of each KFoldConf is ignored, and bagged
+     * configurations are not supported. Every statistic
+     * is computed over all points at once, so each result holds a single
+     * "fold" value.
+     *
+     * @param partition the partition of all points into folds
+     * @param confs the configurations to validate
+     * @param statistics the statistics to compute
+     * @return the result of each configuration, in the order of confs
+     * @throws IllegalArgumentException if confs is empty or holds a bagged
+     *         configuration
+     */
+    public List<KFoldResult> leaveOneOut(PMPoint[][] partition,
+                                         List<KFoldConf> confs,
+                                         ErrorStatistic... statistics) {
+        return leaveOneOut((Object) partition, confs, statistics);
+    }
 
-            // single out validationSet and trainingSet
-            List<PMPoint> validationSet = Arrays.asList(partition[i]);
-            List<PMPoint> trainingSet = new ArrayList<>();
+    /**
+     * Perform leave-one-out cross validation over all measurements of
+     * partition for every configuration in confs, as leaveOneOut() does
+     * for a partition array.
+     *
+     * @param partition the partition of all measurements into folds
+     * @param confs the configurations to validate
+     * @param statistics the statistics to compute
+     * @return the result of each configuration, in the order of confs
+     * @throws IllegalArgumentException if confs is empty or holds a bagged
+     *         configuration
+     */
+    public List<KFoldResult> leaveOneOut(Partition partition,
+                                         List<KFoldConf> confs,
+                                         ErrorStatistic... statistics) {
+        return leaveOneOut((Object) partition, confs, statistics);
+    }
 
-            // join sets into trainingSet, as required
-            for (int j = 0; j < partition.length; j++)
-                if (j != i)
-                    trainingSet.addAll(Arrays.asList(partition[j]));
+    // validate confs by leave-one-out over source, as above
+    private List<KFoldResult> leaveOneOut(Object source,
+                                          List<KFoldConf> confs,
+                                          ErrorStatistic[] statistics) {
+
+        if (confs.isEmpty())
+            throw new IllegalArgumentException();
+        for (KFoldConf conf : confs)
+            if (conf.isBagged())
+                throw new IllegalArgumentException();
+
+        // validate each group of confs at the same time scale at once
+        return byGroup(confs, (a, b) -> a.getTIME_SCALE() == b.getTIME_SCALE(),
+                group -> leaveOneOut(source, new ConfGrid(group),
+                        statistics));
+    }
 
-            // build a KDTree from trainingSet
-            KDTree<PMPoint> kdtree = new KDTree<>(3);
-            kdtree.build(trainingSet);
+    // validate every configuration of grid, all at one time scale
+    private List<KFoldResult> leaveOneOut(Object source, ConfGrid grid,
+                                          ErrorStatistic[] statistics) {
+        int k = grid.getMaxNeighbors();
+
+        // search every point of the tree for itself and k neighbors
+        KDTree<PMPoint> kdtree = cache.getTree(source, pool);
+        NeighborTable table = kdtree.getNearestNeighbors(k + 1,
+                kdtree.getCoordinates(), grid.getConf(0).getWeights(), pool);
+
+        double[] distances = new double[k];
+        double[] values = new double[k];
+        double[][] estimates = grid.newEstimates();
+        ErrorAccumulator[][] accumulators =
+                newAccumulators(grid.size(), statistics);
+
+        for (int i = 0; i < kdtree.size(); i++) {
+
+            // drop point i from its own neighbors
+            int count = 0;
+            for (int j = 0; j < table.getNeighborCount(i) && count < k; j++) {
+                int index = table.getIndex(i, j);
+                if (index == i)
+                    continue;
+                distances[count] = table.getDistanceSquared(i, j);
+                values[count] = kdtree.getValue(index);
+                count++;
+            }
+            grid.estimate(distances, values, count, estimates);
 
-            // compute result for this validation set
-            for (PMPoint p : validationSet) {
-                NearestNeighborList<PMPoint> nnl =
-                        kdtree.getNearestNeighbors(conf.getNEIGHBORS(), p);
-                results[i] += Math.pow(p.getEstimate(nnl, conf.getPOWER()) -
-                        p.get(3), 2);
+            double observed = kdtree.getValue(i);
+            for (int c = 0; c < grid.size(); c++) {
+                double estimate = grid.getEstimate(c, estimates, count);
+                for (ErrorAccumulator a : accumulators[c])
+                    a.add(estimate, observed);
             }
-            results[i] /= validationSet.size();
         }
 
-        // average the results for each set in the partition
-        double result = 0.0;
-        for (double r : results) result += r;
-        result /= results.length;
-
-        // return average
-        return result;
+        double[][][] foldValues = new double[grid.size()][statistics.length][1];
+        for (int c = 0; c < grid.size(); c++)
+            for (int s = 0; s < statistics.length; s++)
+                foldValues[c][s][0] = accumulators[c][s].getValue();
+        return toResults(grid, statistics, foldValues);
     }
 
-    /*
-     * Root Mean Squared Error
+    /**
+     * Perform leave-one-out cross validation over all points of partition
+     * for conf, as leaveOneOut(partition, confs, statistics) does.
+     *
+     * @param partition the partition of all points into folds
+     * @param conf the configuration to validate
+     * @param statistics the statistics to compute
+     * @return the values of every statistic over all points
      */
-    public double RMSE(PMPoint[][] partition, KFoldConf conf) {
-
-        double[] results = new double[conf.getFOLDS()];
-
-        for (int i = 0; i < results.length; i++) {
+    public KFoldResult leaveOneOut(PMPoint[][] partition, KFoldConf conf,
+                                   ErrorStatistic... statistics) {
+        return leaveOneOut(partition, Collections.singletonList(conf),
+                statistics).get(0);
+    }
 
-            // single out validationSet and trainingSet
-            List<PMPoint> validationSet = Arrays.asList(partition[i]);
-            List<PMPoint> trainingSet = new ArrayList<>();
+    // fresh accumulators for each of count configurations
+    private static ErrorAccumulator[][] newAccumulators(
+            int count, ErrorStatistic[] statistics) {
+        ErrorAccumulator[][] result =
+                new ErrorAccumulator[count][statistics.length];
+        for (int c = 0; c < count; c++)
+            for (int s = 0; s < statistics.length; s++)
+                result[c][s] = statistics[s].newAccumulator();
+        return result;
+    }
 
-            // join sets into trainingSet, as required
-            for (int j = 0; j < partition.length; j++)
-                if (j != i)
-                    trainingSet.addAll(Arrays.asList(partition[j]));
+    // pair each configuration with its statistics
+    private static List<KFoldResult> toResults(ConfGrid grid,
+                                               ErrorStatistic[] statistics,
+                                               double[][][] foldValues) {
+        List<KFoldResult> results = new ArrayList<>();
+        for (int c = 0; c < grid.size(); c++)
+            results.add(new KFoldResult(grid.getConf(c), statistics,
+                    foldValues[c]));
+        return results;
+    }
 
-            // build a KDTree from trainingSet
-            KDTree<PMPoint> kdtree = new KDTree<>(3);
-            kdtree.build(trainingSet);
+    /*
+     * A run of consecutive measurements of one fold, validated against the
+     * trees of its training set with accumulators of its own.
+     */
+    private static class Chunk {
+
+        private final List<KDTree<PMPoint>> trees;
+        private final int excluded;
+        private final double[] weights;
+        private final ConfGrid grid;
+        private final Partition partition;
+        private final int fold;
+        private final int lo, hi;
+
+        // the estimates of the first configuration of the fold, or null
+        private final double[] recorded;
+
+        // one accumulator per configuration and statistic
+        final ErrorAccumulator[][] accumulators;
+
+        Chunk(List<KDTree<PMPoint>> trees, int excluded, double[] weights,
+              ConfGrid grid, ErrorStatistic[] statistics,
+              Partition partition, int fold, int lo, int hi,
+              double[] recorded) {
+            this.trees = trees;
+            this.excluded = excluded;
+            this.weights = weights;
+            this.grid = grid;
+            this.partition = partition;
+            this.fold = fold;
+            this.lo = lo;
+            this.hi = hi;
+            this.recorded = recorded;
+            accumulators = newAccumulators(grid.size(), statistics);
+        }
 
-            // compute result
-            for (PMPoint p : validationSet) {
-                NearestNeighborList<PMPoint> nnl =
-                        kdtree.getNearestNeighbors(conf.getNEIGHBORS(), p);
-                results[i] +=
-                        Math.pow(p.getEstimate(nnl, conf.getPOWER()) - p.get(3), 2.0);
+        // feed every (estimate, observed) pair of the chunk
+        void validate() {
+            int k = grid.getMaxNeighbors();
+            NeighborHeap heap = new NeighborHeap(k);
+            double[] distances = new double[k];
+            double[] values = new double[k];
+            double[][] estimates = grid.newEstimates();
+            double[] sums = new double[grid.size()];
+            double[] query = new double[3];
+            PointStore store = partition.getStore();
+
+            for (int m = lo; m < hi; m++) {
+                int handle = partition.getHandle(fold, m);
+                for (int a = 0; a < 3; a++)
+                    query[a] = store.get(handle, a);
+
+                // one search of each tree serves every configuration
+                Arrays.fill(sums, 0.0);
+                for (KDTree<PMPoint> kdtree : trees) {
+                    kdtree.getNearestNeighbors(query, heap, excluded, weights);
+                    for (int n = 0; n < heap.size(); n++) {
+                        distances[n] = heap.getDistanceSquared(n);
+                        values[n] = kdtree.getValue(heap.getIndex(n));
+                    }
+                    grid.estimate(distances, values, heap.size(), estimates);
+                    for (int c = 0; c < grid.size(); c++)
+                        sums[c] += grid.getEstimate(c, estimates, heap.size());
+                }
+
+                double observed = store.getValue(handle);
+                for (int c = 0; c < grid.size(); c++) {
+                    double estimate = sums[c] / trees.size();
+                    for (ErrorAccumulator a : accumulators[c])
+                        a.add(estimate, observed);
+                }
+                if (recorded != null)
+                    recorded[m] = sums[0] / trees.size();
             }
-            results[i] /= validationSet.size();
-            results[i] = Math.sqrt(results[i]);
         }
-
-        double result = 0.0;
-        for (double r : results) result += r;
-        result /= results.length;
-
-        return result;
     }
 
     /*
-     * Root Mean Squared Percentage Error statistic.
+     * Validates a range of chunks, splitting it in half until a single
+     * chunk is left.
      */
-    public double RMSPE(PMPoint[][] partition, KFoldConf conf) {
-
-        double[] results = new double[conf.getFOLDS()];
+    private static class ChunkTask extends RecursiveAction {
 
-        for (int i = 0; i < results.length; i++) {
+        private final List<Chunk> chunks;
+        private final int lo, hi;
 
-            // single out validationSet and trainingSet
-            List<PMPoint> validationSet = Arrays.asList(partition[i]);
-            List<PMPoint> trainingSet = new ArrayList<>();
-
-            // join sets into trainingSet, as required
-            for (int j = 0; j < partition.length; j++)
-                if (j != i)
-                    trainingSet.addAll(Arrays.asList(partition[j]));
-
-            // build a KDTree from trainingSet
-            KDTree<PMPoint> kdtree = new KDTree<>(3);
-            kdtree.build(trainingSet);
+        ChunkTask(List<Chunk> chunks, int lo, int hi) {
+            this.chunks = chunks;
+            this.lo = lo;
+            this.hi = hi;
+        }
 
-            // compute result
-            for (PMPoint p : validationSet) {
-                NearestNeighborList<PMPoint> nnl =
-                        kdtree.getNearestNeighbors(conf.getNEIGHBORS(), p);
-                results[i] +=
-                        Math.pow((p.getEstimate(nnl, conf.getPOWER()) - p.get(3)) /
-                                p.get(3), 2.0);
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                chunks.get(lo).validate();
+                return;
             }
-            results[i] /= validationSet.size();
-            results[i] = Math.sqrt(results[i]);
-            results[i] *= 100;
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ChunkTask(chunks, lo, mid),
+                    new ChunkTask(chunks, mid, hi));
         }
-
-        double result = 0.0;
-        for (double r : results) result += r;
-        result /= results.length;
-
-        return result;
     }
 
     /*
-     * Cross Validation R-squared statistic.
+     * Mean Absolute Error
      */
-    public double CVRS(PMPoint[][] partition, KFoldConf conf) {
-
-        double[] results = new double[conf.getFOLDS()];
-
-        for (int i = 0; i < results.length; i++) {
-
-            // single out validationSet and trainingSet
-            List<PMPoint> validationSet = Arrays.asList(partition[i]);
-            List<PMPoint> trainingSet = new ArrayList<>();
-
-            // join sets into trainingSet, as required
-            for (int j = 0; j < partition.length; j++)
-                if (j != i)
-                    trainingSet.addAll(Arrays.asList(partition[j]));
+    public double MAE(PMPoint[][] partition, KFoldConf conf) {
+        return evaluate(partition, conf, Metric.MAE).getValue(Metric.MAE);
+    }
 
-            // build a KDTree from trainingSet
-            KDTree<PMPoint> kdtree = new KDTree<>(3);
-            kdtree.build(trainingSet);
+    /*
+     * Mean Absolute Error plus write to standard out. Each measurement is
+     * validated exactly as by MAE(), bagging and time scale included, and
+     * printed with its estimate, fold by fold.
+     */
+    public double writeAndMAE(PMPoint[][] partition, KFoldConf conf) {
 
-            // compute result
-            for (PMPoint p : validationSet) {
-                NearestNeighborList<PMPoint> nnl =
-                        kdtree.getNearestNeighbors(conf.getNEIGHBORS(), p);
-                results[i] +=
-                        Math.pow(p.getEstimate(nnl, conf.getPOWER()) - p.get(3), 2.0);
+        Partition folds = cache.getPartition(partition);
+        double[][] estimates = new double[conf.getFOLDS()][];
+        for (int i = 0; i < estimates.length; i++)
+            estimates[i] = new double[folds.getFoldSize(i)];
+        KFoldResult result = validate(partition,
+                new ConfGrid(Collections.singletonList(conf)),
+                allFolds(Collections.singletonList(conf)),
+                new ErrorStatistic[] {Metric.MAE}, estimates).get(0);
+
+        PointStore store = folds.getStore();
+        for (int i = 0; i < estimates.length; i++) {
+            System.out.println("FOLD " + i + "=====================================");
+            for (int m = 0; m < estimates[i].length; m++) {
+                int handle = folds.getHandle(i, m);
+                System.out.println(store.get(handle, 0) + "\t" +
+                                   store.get(handle, 1) + "\t" +
+                                   store.get(handle, 2) + "\t" +
+                                   store.getValue(handle) + "\t" +
+                                   estimates[i][m]);
             }
-            results[i] /= validationSet.size();
-
-            // the code, so far has matched RMSE(); here we don't take the square root,
-            // since we need RMSE^2 for Rcv^2, we simply divide by observedMSE
-            results[i] = results[i] / observedMSE(partition, i);
-
-            // finally, we perform our max operation
-            results[i] = Math.max(0.0, 1 - results[i]);
+            System.out.println("===================================================\n");
         }
 
-        double result = 0.0;
-        for (double r : results) result += r;
-        result /= results.length;
-
-        return result;
+        return result.getValue(Metric.MAE);
     }
 
     /*
-     * Private helper for CVR2. Returns the MSE for all observed values in row
-     * "i" of the given partition.
+     * Mean Absolute Relative Error
      */
-    private double observedMSE(PMPoint[][] partition, int i) {
+    public double MARE(PMPoint[][] partition, KFoldConf conf) {
+        return evaluate(partition, conf, Metric.MARE).getValue(Metric.MARE);
+    }
 
-        // declare and initialize result
-        double result = 0.0;
+    /*
+     * Mean Square Error
+     */
+    public double MSE(PMPoint[][] partition, KFoldConf conf) {
+        return evaluate(partition, conf, Metric.MSE).getValue(Metric.MSE);
+    }
 
-        // calculate the average of the observed values in row i
-        double mean;
-        double sum = 0.0;
-        for (PMPoint p: partition[i])
-            sum += p.get(3);
-        mean = sum / partition[i].length;
+    /*
+     * Root Mean Squared Error
+     */
+    public double RMSE(PMPoint[][] partition, KFoldConf conf) {
+        return evaluate(partition, conf, Metric.RMSE).getValue(Metric.RMSE);
+    }
 
-        // use the sum of the squared differences to set result
-        double diffSum = 0.0;
-        for (PMPoint p: partition[i])
-            diffSum += Math.pow(p.get(3) - mean, 2);
-        result = diffSum / partition[i].length;
+    /*
+     * Root Mean Squared Percentage Error statistic.
+     */
+    public double RMSPE(PMPoint[][] partition, KFoldConf conf) {
+        return evaluate(partition, conf, Metric.RMSPE).getValue(Metric.RMSPE);
+    }
 
-        // return result
-        return result;
+    /*
+     * Cross Validation R-squared statistic.
+     */
+    public double CVRS(PMPoint[][] partition, KFoldConf conf) {
+        return evaluate(partition, conf, Metric.CVRS).getValue(Metric.CVRS);
     }
-}
\ No newline at end of file
+}
@@ -1,10 +1,23 @@
 package edu.georgiasouthern.ceit.aeolus.kfold;
 
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+
 import java.io.Serializable;
 
 /**
  * Type encapsulating the configuration of a given KFold
  * computation.
+ * <p>
+ * A bagged configuration estimates each validation point by averaging
+ * the IDW estimates of BAGS bootstrap samples of the training set, each
+ * of ALPHA times its size and drawn with replacement using SEED. A
+ * configuration with zero BAGS is not bagged and uses the whole training
+ * set.
+ * <p>
+ * TIME_SCALE is the factor applied to the day of the year, the time scale
+ * c of the Python experiments. Points are indexed once at
+ * PMPoint.TIME_SCALE, and searches weigh the time axis to match, so
+ * configurations that differ only in TIME_SCALE share their trees.
  *
  * @author Jason Franklin
  */
@@ -13,11 +26,61 @@ public class KFoldConf implements Serializable {
     private final int FOLDS;
     private final int NEIGHBORS;
     private final double POWER;
+    private final double TIME_SCALE;
+    private final double ALPHA;
+    private final int BAGS;
+    private final long SEED;
 
     public KFoldConf(int folds, int neighbors, double power) {
+        this(folds, neighbors, power, PMPoint.TIME_SCALE);
+    }
+
+    public KFoldConf(int folds, int neighbors, double power,
+                     double timeScale) {
+        this(folds, neighbors, power, timeScale, 1.0, 0, 0L);
+    }
+
+    /**
+     * Allocate a bagged configuration.
+     *
+     * @param folds the number of folds
+     * @param neighbors the number of neighbors of each estimate
+     * @param power the power of the IDW weights
+     * @param alpha the size of each bag, as a fraction of the training set
+     * @param bags the number of bags, or 0 for no bagging
+     * @param seed the seed of the bootstrap samples
+     * @throws IllegalArgumentException if alpha is not positive or bags is
+     *         negative
+     */
+    public KFoldConf(int folds, int neighbors, double power,
+                     double alpha, int bags, long seed) {
+        this(folds, neighbors, power, PMPoint.TIME_SCALE, alpha, bags, seed);
+    }
+
+    /**
+     * Allocate a configuration with every parameter given.
+     *
+     * @param folds the number of folds
+     * @param neighbors the number of neighbors of each estimate
+     * @param power the power of the IDW weights
+     * @param timeScale the factor applied to the day of the year
+     * @param alpha the size of each bag, as a fraction of the training set
+     * @param bags the number of bags, or 0 for no bagging
+     * @param seed the seed of the bootstrap samples
+     * @throws IllegalArgumentException if timeScale is negative, alpha is
+     *         not positive or bags is negative
+     */
+    public KFoldConf(int folds, int neighbors, double power,
+                     double timeScale, double alpha, int bags, long seed) {
+        if (!(timeScale >= 0.0) || !(alpha > 0.0) || bags < 0)
+            throw new IllegalArgumentException();
         FOLDS = folds;
         NEIGHBORS = neighbors;
         POWER = power;
+        TIME_SCALE = timeScale;
+        ALPHA = alpha;
+        BAGS = bags;
+        SEED = seed;
     }
 
     public int getFOLDS() {
@@ -32,9 +95,61 @@ public class KFoldConf implements Serializable {
         return POWER;
     }
 
+    public double getTIME_SCALE() {
+        return TIME_SCALE;
+    }
+
+    public double getALPHA() {
+        return ALPHA;
+    }
+
+    public int getBAGS() {
+        return BAGS;
+    }
+
+    public long getSEED() {
+        return SEED;
+    }
+
+    public boolean isBagged() {
+        return BAGS > 0;
+    }
+
+    /*
+     * Return the weight of each axis of a search at TIME_SCALE in a tree
+     * over PMPoints scaled by PMPoint.TIME_SCALE.
+     */
+    double[] getWeights() {
+        double t = TIME_SCALE / PMPoint.TIME_SCALE;
+        return new double[] {1.0, 1.0, t * t};
+    }
+
+    /*
+     * Return true if conf validates against the same training sets as this
+     * configuration: the same folds, and the same bags if any.
+     */
+    boolean sharesTrainingSets(KFoldConf conf) {
+        if (FOLDS != conf.FOLDS || BAGS != conf.BAGS)
+            return false;
+        return BAGS == 0 || (ALPHA == conf.ALPHA && SEED == conf.SEED);
+    }
+
+    /*
+     * Return true if conf finds the same neighbors as this configuration:
+     * the same training sets, searched at the same time scale.
+     */
+    boolean sharesNeighbors(KFoldConf conf) {
+        return sharesTrainingSets(conf) && TIME_SCALE == conf.TIME_SCALE;
+    }
+
     @Override
     public String toString() {
-        return String.format("(F=%d, N=%d, P=%.2f)",
+        String result = String.format("(F=%d, N=%d, P=%.2f",
                 FOLDS, NEIGHBORS, POWER);
+        if (TIME_SCALE != PMPoint.TIME_SCALE)
+            result += String.format(", C=%.3f", TIME_SCALE);
+        if (isBagged())
+            result += String.format(", A=%.2f, M=%d", ALPHA, BAGS);
+        return result + ")";
     }
 }
@@ -0,0 +1,75 @@
+package edu.georgiasouthern.ceit.aeolus.kfold;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The outcome of a single pass of k-fold cross validation: the value of
+ * every requested ErrorStatistic for every fold, together with the
+ * KFoldConf that produced them.
+ *
+ * @author Jason Franklin
+ */
+public class KFoldResult implements Serializable {
+
+    private final KFoldConf conf;
+    private final List<ErrorStatistic> statistics;
+
+    // foldValues[s][i] is the value of statistic s on fold i
+    private final double[][] foldValues;
+
+    public KFoldResult(KFoldConf conf, ErrorStatistic[] statistics,
+                       double[][] foldValues) {
+        this.conf = conf;
+        this.statistics = Arrays.asList(statistics.clone());
+        this.foldValues = foldValues;
+    }
+
+    public KFoldConf getConf() {
+        return conf;
+    }
+
+    public List<ErrorStatistic> getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Return the value of statistic averaged over every fold, which is
+     * the figure reported by the single-statistic methods of KFoldCalc.
+     *
+     * @param statistic one of the statistics of this result
+     * @return the average of the per-fold values of statistic
+     * @throws IllegalArgumentException if statistic was not computed
+     */
+    public double getValue(ErrorStatistic statistic) {
+        double result = 0.0;
+        double[] values = getFoldValues(statistic);
+        for (double v : values)
+            result += v;
+        return result / values.length;
+    }
+
+    /**
+     * Return the value of statistic on each fold.
+     *
+     * @param statistic one of the statistics of this result
+     * @return the per-fold values of statistic, indexed by fold
+     * @throws IllegalArgumentException if statistic was not computed
+     */
+    public double[] getFoldValues(ErrorStatistic statistic) {
+        int s = statistics.indexOf(statistic);
+        if (s < 0)
+            throw new IllegalArgumentException();
+        return foldValues[s].clone();
+    }
+
+    @Override
+    public String toString() {
+        String result = conf.toString();
+        for (ErrorStatistic statistic : statistics)
+            result += String.format(" %s=%.7f",
+                    statistic.getName(), getValue(statistic));
+        return result;
+    }
+}
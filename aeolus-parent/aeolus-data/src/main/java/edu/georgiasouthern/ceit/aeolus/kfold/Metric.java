@@ -0,0 +1,141 @@
+package edu.georgiasouthern.ceit.aeolus.kfold;
+
+/**
+ * The error statistics used to compare interpolation configurations.
+ * Every Metric is computed from the same running sums of residuals, so
+ * any number of them can share a single pass over a fold.
+ *
+ * @author Jason Franklin
+ */
+public enum Metric implements ErrorStatistic {
+
+    /**
+     * Mean Absolute Error.
+     */
+    MAE {
+        double value(ResidualSums s) {
+            return s.sumAbsolute / s.count;
+        }
+    },
+
+    /**
+     * Mean Square Error.
+     */
+    MSE {
+        double value(ResidualSums s) {
+            return s.sumSquared / s.count;
+        }
+    },
+
+    /**
+     * Root Mean Squared Error.
+     */
+    RMSE {
+        double value(ResidualSums s) {
+            return Math.sqrt(s.sumSquared / s.count);
+        }
+    },
+
+    /**
+     * Mean Absolute Relative Error.
+     */
+    MARE {
+        double value(ResidualSums s) {
+            return s.sumAbsoluteRelative / s.count;
+        }
+    },
+
+    /**
+     * Root Mean Squared Percentage Error.
+     */
+    RMSPE {
+        double value(ResidualSums s) {
+            return Math.sqrt(s.sumSquaredRelative / s.count) * 100;
+        }
+    },
+
+    /**
+     * Cross Validation R-squared, 1 - MSE / Var(observed), floored at 0.
+     */
+    CVRS {
+        double value(ResidualSums s) {
+            return Math.max(0.0,
+                    1 - (s.sumSquared / s.count) / (s.observedM2 / s.count));
+        }
+
+        @Override
+        public boolean isMaximized() {
+            return true;
+        }
+    };
+
+    // compute the value of this Metric from the sums of one fold
+    abstract double value(ResidualSums sums);
+
+    public String getName() {
+        return name();
+    }
+
+    public ErrorAccumulator newAccumulator() {
+        return new ResidualSums(this);
+    }
+
+    public boolean isMaximized() {
+        return false;
+    }
+
+    /*
+     * The running sums behind every Metric. The variance of the observed
+     * values is tracked with Welford's update so that it needs no second
+     * pass, and merged with the pairwise formula of Chan et al.
+     */
+    static class ResidualSums implements ErrorAccumulator {
+
+        private final Metric metric;
+
+        long count;
+        double sumAbsolute;
+        double sumSquared;
+        double sumAbsoluteRelative;
+        double sumSquaredRelative;
+        double observedMean;
+        double observedM2;
+
+        ResidualSums(Metric metric) {
+            this.metric = metric;
+        }
+
+        public void add(double estimate, double observed) {
+            double error = estimate - observed;
+            double relative = error / observed;
+            count++;
+            sumAbsolute += Math.abs(error);
+            sumSquared += error * error;
+            sumAbsoluteRelative += Math.abs(error) / observed;
+            sumSquaredRelative += relative * relative;
+            double delta = observed - observedMean;
+            observedMean += delta / count;
+            observedM2 += delta * (observed - observedMean);
+        }
+
+        public void merge(ErrorAccumulator other) {
+            ResidualSums o = (ResidualSums) other;
+            if (o.count == 0)
+                return;
+            long total = count + o.count;
+            double delta = o.observedMean - observedMean;
+            observedM2 += o.observedM2 +
+                    delta * delta * ((double) count * o.count / total);
+            observedMean += delta * o.count / total;
+            count = total;
+            sumAbsolute += o.sumAbsolute;
+            sumSquared += o.sumSquared;
+            sumAbsoluteRelative += o.sumAbsoluteRelative;
+            sumSquaredRelative += o.sumSquaredRelative;
+        }
+
+        public double getValue() {
+            return metric.value(this);
+        }
+    }
+}
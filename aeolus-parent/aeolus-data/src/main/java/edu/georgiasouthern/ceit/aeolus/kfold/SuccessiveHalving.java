@@ -0,0 +1,250 @@
+package edu.georgiasouthern.ceit.aeolus.kfold;
+
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+import edu.georgiasouthern.ceit.aeolus.structures.Partition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An adaptive search for the best KFoldConf of a grid by successive
+ * halving. Rather than validating every configuration on every fold,
+ * all configurations are first validated on a few folds; after that, each
+ * round ranks the survivors by their running value of one statistic (the
+ * mean over the folds validated so far), keeps only the best fraction,
+ * and validates the survivors on one more fold. The configurations that
+ * survive every round are validated on all folds, so the best of them is
+ * reported with the same value a full cross validation would give it.
+ * <p>
+ * Each round is a single KFoldCalc sweep over the survivors, so the
+ * survivors still share their neighbor searches. A configuration that is
+ * dropped early is never validated on its remaining folds; the Result
+ * reports how many fold evaluations that saved.
+ *
+ * @author Jason Franklin
+ */
+public class SuccessiveHalving {
+
+    private final KFoldCalc calc;
+    private final ErrorStatistic statistic;
+
+    // number of folds validated before the first cut
+    private final int minFolds;
+
+    // fraction of the survivors kept by each cut
+    private final double keep;
+
+    /**
+     * Allocate a search that ranks configurations by statistic, cutting
+     * half of them after the first two folds and after every fold that
+     * follows.
+     *
+     * @param calc the KFoldCalc validating each round
+     * @param statistic the statistic to rank configurations by
+     */
+    public SuccessiveHalving(KFoldCalc calc, ErrorStatistic statistic) {
+        this(calc, statistic, 2, 0.5);
+    }
+
+    /**
+     * Allocate a search that ranks configurations by statistic.
+     *
+     * @param calc the KFoldCalc validating each round
+     * @param statistic the statistic to rank configurations by
+     * @param minFolds the number of folds validated before the first cut
+     * @param keep the fraction of the survivors kept by each cut, in
+     *             (0, 1]; at least one configuration is always kept
+     * @throws IllegalArgumentException if minFolds is less than 1 or keep
+     *         is not in (0, 1]
+     */
+    public SuccessiveHalving(KFoldCalc calc, ErrorStatistic statistic,
+                             int minFolds, double keep) {
+        if (minFolds < 1 || !(keep > 0.0 && keep <= 1.0))
+            throw new IllegalArgumentException();
+        this.calc = calc;
+        this.statistic = statistic;
+        this.minFolds = minFolds;
+        this.keep = keep;
+    }
+
+    /**
+     * Search confs for the configuration with the best value of the
+     * statistic of this search, as search() does for a Partition. The
+     * points are copied into a Partition once per call.
+     *
+     * @param partition the partition of all points into folds
+     * @param confs the configurations to search, all with the same number
+     *              of folds
+     * @return the outcome of the search
+     * @throws IllegalArgumentException if confs is empty or its
+     *         configurations differ in their number of folds
+     */
+    public Result search(PMPoint[][] partition, List<KFoldConf> confs) {
+        return search(Partition.of(partition), confs);
+    }
+
+    /**
+     * Search confs for the configuration with the best value of the
+     * statistic of this search.
+     *
+     * @param partition the partition of all measurements into folds
+     * @param confs the configurations to search, all with the same number
+     *              of folds
+     * @return the outcome of the search
+     * @throws IllegalArgumentException if confs is empty or its
+     *         configurations differ in their number of folds
+     */
+    public Result search(Partition partition, List<KFoldConf> confs) {
+
+        if (confs.isEmpty())
+            throw new IllegalArgumentException();
+        int folds = confs.get(0).getFOLDS();
+
+        // the value of every fold validated so far, per configuration
+        double[][] values = new double[confs.size()][folds];
+        int[] validated = new int[confs.size()];
+        List<Integer> survivors = new ArrayList<>();
+        for (int c = 0; c < confs.size(); c++)
+            survivors.add(c);
+
+        int next = 0;
+        long evaluations = 0;
+        while (next < folds) {
+
+            // validate every survivor on the folds of this round
+            int count = next == 0 ? Math.min(minFolds, folds) : 1;
+            int[] round = new int[count];
+            for (int f = 0; f < count; f++)
+                round[f] = next + f;
+            List<KFoldConf> alive = new ArrayList<>();
+            for (int c : survivors)
+                alive.add(confs.get(c));
+            List<KFoldResult> results =
+                    calc.sweep(partition, alive, round, statistic);
+            for (int j = 0; j < survivors.size(); j++) {
+                int c = survivors.get(j);
+                System.arraycopy(results.get(j).getFoldValues(statistic), 0,
+                        values[c], next, count);
+                validated[c] += count;
+            }
+            evaluations += (long) survivors.size() * count;
+            next += count;
+
+            if (next < folds)
+                survivors = cut(survivors, values, next);
+        }
+
+        // every configuration keeps the folds it was validated on
+        List<KFoldResult> results = new ArrayList<>();
+        for (int c = 0; c < confs.size(); c++)
+            results.add(new KFoldResult(confs.get(c),
+                    new ErrorStatistic[] {statistic},
+                    new double[][] {Arrays.copyOf(values[c], validated[c])}));
+
+        KFoldResult best = results.get(survivors.get(0));
+        for (int c : survivors)
+            if (better(results.get(c).getValue(statistic),
+                    best.getValue(statistic)))
+                best = results.get(c);
+
+        return new Result(best, results, evaluations,
+                (long) confs.size() * folds - evaluations);
+    }
+
+    /*
+     * Keep the best fraction of survivors by their mean value over the
+     * first folds folds. Ties keep the configuration listed first.
+     */
+    private List<Integer> cut(List<Integer> survivors, double[][] values,
+                              int folds) {
+        double[] means = new double[values.length];
+        for (int c : survivors) {
+            for (int f = 0; f < folds; f++)
+                means[c] += values[c][f];
+            means[c] /= folds;
+        }
+
+        List<Integer> ranked = new ArrayList<>(survivors);
+        Comparator<Integer> order = Comparator.comparingDouble(c -> means[c]);
+        if (statistic.isMaximized())
+            order = order.reversed();
+        Collections.sort(ranked, order.thenComparingInt(c -> c));
+
+        int kept = Math.max(1, (int) Math.ceil(keep * survivors.size()));
+        List<Integer> result = new ArrayList<>(ranked.subList(0, kept));
+        Collections.sort(result);
+        return result;
+    }
+
+    private boolean better(double value, double best) {
+        return statistic.isMaximized() ? value > best : value < best;
+    }
+
+    /**
+     * The outcome of a successive halving search.
+     */
+    public static class Result {
+
+        private final KFoldResult best;
+        private final List<KFoldResult> results;
+        private final long foldEvaluations;
+        private final long savedFoldEvaluations;
+
+        Result(KFoldResult best, List<KFoldResult> results,
+               long foldEvaluations, long savedFoldEvaluations) {
+            this.best = best;
+            this.results = Collections.unmodifiableList(results);
+            this.foldEvaluations = foldEvaluations;
+            this.savedFoldEvaluations = savedFoldEvaluations;
+        }
+
+        /**
+         * Return the best configuration that survived every cut, validated
+         * on all folds.
+         *
+         * @return the result of the best configuration
+         */
+        public KFoldResult getBest() {
+            return best;
+        }
+
+        /**
+         * Return the result of every configuration searched, in the order
+         * they were given. The result of a configuration holds the value
+         * of each fold it was validated on before it was dropped.
+         *
+         * @return the partial or full result of every configuration
+         */
+        public List<KFoldResult> getResults() {
+            return results;
+        }
+
+        /**
+         * Return the number of (configuration, fold) pairs validated.
+         *
+         * @return the number of fold evaluations performed
+         */
+        public long getFoldEvaluations() {
+            return foldEvaluations;
+        }
+
+        /**
+         * Return the number of (configuration, fold) pairs a full grid
+         * search would have validated but this search did not.
+         *
+         * @return the number of fold evaluations saved
+         */
+        public long getSavedFoldEvaluations() {
+            return savedFoldEvaluations;
+        }
+
+        @Override
+        public String toString() {
+            return "Best " + best + " after " + foldEvaluations +
+                    " fold evaluations (" + savedFoldEvaluations + " saved)";
+        }
+    }
+}
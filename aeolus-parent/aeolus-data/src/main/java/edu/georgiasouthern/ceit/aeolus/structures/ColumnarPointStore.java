@@ -0,0 +1,267 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A PointStore keeping each field of its measurements in a primitive
+ * array of its own. A measurement costs four doubles and two ints, with
+ * no object header or reference, and the handle of a measurement is its
+ * position in the arrays, assigned in the order measurements are added.
+ * <p>
+ * A store with more than one variable keeps the values of variables 1
+ * and up of each measurement together in one further array.
+ *
+ * @author Jason Franklin
+ */
+public class ColumnarPointStore implements PointStore, Serializable {
+
+    // number of measurements allocated for an empty store
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int size;
+
+    // the number of variables, and the values of variables 1 and up of
+    // every measurement, variables - 1 per measurement
+    private final int variables;
+    private double[] extras;
+
+    // the fields of every measurement
+    private double[] longitudes;
+    private double[] latitudes;
+    private double[] scaledTimes;
+    private double[] values;
+    private int[] stations;
+    private int[] days;
+
+    public ColumnarPointStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Allocate an empty ColumnarPointStore with room for capacity
+     * measurements.
+     *
+     * @param capacity the number of measurements to allocate room for
+     */
+    public ColumnarPointStore(int capacity) {
+        this(capacity, 1);
+    }
+
+    /**
+     * Allocate an empty ColumnarPointStore of measurements of several
+     * variables, with room for capacity measurements.
+     *
+     * @param capacity the number of measurements to allocate room for
+     * @param variables the number of variables of each measurement
+     */
+    public ColumnarPointStore(int capacity, int variables) {
+        if (capacity < 0 || variables < 1)
+            throw new IllegalArgumentException();
+        size = 0;
+        this.variables = variables;
+        extras = new double[capacity * (variables - 1)];
+        longitudes = new double[capacity];
+        latitudes = new double[capacity];
+        scaledTimes = new double[capacity];
+        values = new double[capacity];
+        stations = new int[capacity];
+        days = new int[capacity];
+    }
+
+    /**
+     * Return a new store holding the tuples of points, in order. The
+     * station of each measurement is unknown, and its day is derived from
+     * its scaled time.
+     *
+     * @param points the points to be copied
+     * @return a store whose handle i holds the tuple of points.get(i)
+     */
+    public static ColumnarPointStore of(List<PMPoint> points) {
+        ColumnarPointStore store = new ColumnarPointStore(points.size());
+        for (PMPoint p : points)
+            store.add(-1, (int) Math.round(p.get(2) / PMPoint.TIME_SCALE),
+                    p.get(0), p.get(1), p.get(2), p.get(3));
+        return store;
+    }
+
+    /**
+     * Add a measurement taken on a day of the year, with the scaled time
+     * a PMPoint parsed from the same record would have. Any variables
+     * but the first are not measured.
+     *
+     * @param station the station id of the measurement, or -1
+     * @param day the day of the year, 1 for January 1st
+     * @param longitude the longitude of the measurement
+     * @param latitude the latitude of the measurement
+     * @param value the PM<sub>2.5</sub> measurement
+     * @return the handle of the new measurement
+     */
+    public int add(int station, int day, double longitude, double latitude,
+                   double value) {
+        return add(station, day, longitude, latitude,
+                day * PMPoint.TIME_SCALE, value);
+    }
+
+    /**
+     * Add a measurement of every variable of this store taken on a day of
+     * the year. A variable that was not measured has the value NaN.
+     *
+     * @param station the station id of the measurement, or -1
+     * @param day the day of the year, 1 for January 1st
+     * @param longitude the longitude of the measurement
+     * @param latitude the latitude of the measurement
+     * @param values the value of each variable, PM<sub>2.5</sub> first
+     * @return the handle of the new measurement
+     * @throws IllegalArgumentException if values does not hold one value
+     *         per variable
+     */
+    public int add(int station, int day, double longitude, double latitude,
+                   double[] values) {
+        if (values.length != variables)
+            throw new IllegalArgumentException();
+        int handle = add(station, day, longitude, latitude,
+                day * PMPoint.TIME_SCALE, values[0]);
+        System.arraycopy(values, 1, extras, handle * (variables - 1),
+                variables - 1);
+        return handle;
+    }
+
+    // store a measurement in the next slot, returning its handle
+    private int add(int station, int day, double longitude, double latitude,
+                    double scaledTime, double value) {
+        ensureCapacity(size + 1);
+        Arrays.fill(extras, size * (variables - 1),
+                (size + 1) * (variables - 1), Double.NaN);
+        longitudes[size] = longitude;
+        latitudes[size] = latitude;
+        scaledTimes[size] = scaledTime;
+        values[size] = value;
+        stations[size] = station;
+        days[size] = day;
+        return size++;
+    }
+
+    // append every measurement of other, of as many variables, in order
+    void addAll(ColumnarPointStore other) {
+        if (other.variables != variables)
+            throw new IllegalArgumentException();
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.extras, 0, extras, size * (variables - 1),
+                other.size * (variables - 1));
+        System.arraycopy(other.longitudes, 0, longitudes, size, other.size);
+        System.arraycopy(other.latitudes, 0, latitudes, size, other.size);
+        System.arraycopy(other.scaledTimes, 0, scaledTimes, size, other.size);
+        System.arraycopy(other.values, 0, values, size, other.size);
+        System.arraycopy(other.stations, 0, stations, size, other.size);
+        System.arraycopy(other.days, 0, days, size, other.size);
+        size += other.size;
+    }
+
+    // replace each known station s by ids[s]
+    void renumberStations(int[] ids) {
+        for (int h = 0; h < size; h++)
+            if (stations[h] >= 0)
+                stations[h] = ids[stations[h]];
+    }
+
+    /**
+     * Release the room allocated beyond the measurements of this store.
+     */
+    public void trimToSize() {
+        longitudes = Arrays.copyOf(longitudes, size);
+        latitudes = Arrays.copyOf(latitudes, size);
+        scaledTimes = Arrays.copyOf(scaledTimes, size);
+        values = Arrays.copyOf(values, size);
+        stations = Arrays.copyOf(stations, size);
+        days = Arrays.copyOf(days, size);
+        extras = Arrays.copyOf(extras, size * (variables - 1));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double get(int handle, int index) {
+        switch (index) {
+            case 0: return getLongitude(handle);
+            case 1: return getLatitude(handle);
+            case 2: return getScaledTime(handle);
+            case 3: return getValue(handle);
+            default: throw new IndexOutOfBoundsException();
+        }
+    }
+
+    @Override
+    public double getLongitude(int handle) {
+        check(handle);
+        return longitudes[handle];
+    }
+
+    @Override
+    public double getLatitude(int handle) {
+        check(handle);
+        return latitudes[handle];
+    }
+
+    @Override
+    public double getScaledTime(int handle) {
+        check(handle);
+        return scaledTimes[handle];
+    }
+
+    @Override
+    public double getValue(int handle) {
+        check(handle);
+        return values[handle];
+    }
+
+    @Override
+    public int getVariableCount() {
+        return variables;
+    }
+
+    @Override
+    public double getValue(int handle, int variable) {
+        check(handle);
+        if (variable < 0 || variable >= variables)
+            throw new IndexOutOfBoundsException();
+        if (variable == 0)
+            return values[handle];
+        return extras[handle * (variables - 1) + variable - 1];
+    }
+
+    @Override
+    public int getStation(int handle) {
+        check(handle);
+        return stations[handle];
+    }
+
+    @Override
+    public int getDay(int handle) {
+        check(handle);
+        return days[handle];
+    }
+
+    // the arrays may be longer than size
+    private void check(int handle) {
+        if (handle < 0 || handle >= size)
+            throw new IndexOutOfBoundsException();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= values.length)
+            return;
+        int newCapacity = Math.max(capacity, values.length * 2);
+        longitudes = Arrays.copyOf(longitudes, newCapacity);
+        latitudes = Arrays.copyOf(latitudes, newCapacity);
+        scaledTimes = Arrays.copyOf(scaledTimes, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+        stations = Arrays.copyOf(stations, newCapacity);
+        days = Arrays.copyOf(days, newCapacity);
+        extras = Arrays.copyOf(extras, newCapacity * (variables - 1));
+    }
+}
@@ -0,0 +1,391 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A reader of the measurement records of our own csv files, such as
+ * "pm25_2009_measured.csv", whose lines after a header line are
+ * <blockquote>
+ * id,year,month,day,x,y,pm25
+ * </blockquote>
+ * The input is mapped or read as bytes and each field is parsed where it
+ * lies, straight into the columns of a ColumnarPointStore, so no String
+ * is made for a record or for its fields. The bytes are cut into chunks
+ * at line breaks and the chunks parsed in parallel.
+ * <p>
+ * Handles follow the order of the records in the input, and each record
+ * has the tuple PMPoint.dataPoint() would give it. Stations are numbered
+ * from 0 in the order their ids first appear.
+ * <p>
+ * Every column of the header after pm25 names a further variable, e.g.
+ * <blockquote>
+ * id,year,month,day,x,y,pm25,ozone,pm10
+ * </blockquote>
+ * and the store has one variable per value column. A value that is empty,
+ * or missing at the end of a record, is read as NaN, i.e. not measured.
+ *
+ * @author Jason Franklin
+ */
+public class CsvPointReader {
+
+    // fewest bytes worth parsing in a task of their own
+    private static final int MIN_CHUNK = 1 << 20;
+
+    // most bytes of a file mapped at once
+    private static final int MAX_WINDOW = 1 << 30;
+
+    // number of fields of a record with a single variable
+    private static final int FIELDS = 7;
+
+    // largest mantissa, and powers of ten, a double holds exactly
+    private static final long MAX_EXACT = 1L << 53;
+    private static final double[] POWERS = new double[23];
+
+    static {
+        POWERS[0] = 1.0;
+        for (int i = 1; i < POWERS.length; i++)
+            POWERS[i] = POWERS[i - 1] * 10.0;
+    }
+
+    // Disallow instantiation of CsvPointReader.
+    private CsvPointReader() {}
+
+    /**
+     * Return a store of every record of the file at path, which is
+     * mapped a window of at most 1 GiB at a time.
+     *
+     * @param path the location of the csv file
+     * @param pool the pool to parse chunks in, or null to parse on the
+     *             calling thread
+     * @return a new store holding every record of the file, in order
+     * @throws IOException if the file cannot be read, or holds a line
+     *         longer than a window
+     * @throws IllegalArgumentException if a record is malformed
+     */
+    public static ColumnarPointStore read(Path path, ForkJoinPool pool)
+            throws IOException {
+        Ingest ingest = new Ingest(pool);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            boolean header = true;
+            while (position < size) {
+                int length = (int) Math.min(size - position, MAX_WINDOW);
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, length);
+
+                // end each window but the last on its last line break
+                int end = length;
+                if (position + length < size) {
+                    while (end > 0 && window.get(end - 1) != '\n')
+                        end--;
+                    if (end == 0)
+                        throw new IOException("Record longer than "
+                                + MAX_WINDOW + " bytes.");
+                }
+                ingest.parse(window, header ? ingest.header(window, end) : 0,
+                        end);
+                header = false;
+                position += end;
+            }
+        }
+        return ingest.finish();
+    }
+
+    /**
+     * Return a store of every record read from in, which is read to its
+     * end but not closed.
+     *
+     * @param in the stream of the csv file
+     * @param pool the pool to parse chunks in, or null to parse on the
+     *             calling thread
+     * @return a new store holding every record of the stream, in order
+     * @throws IOException if the stream cannot be read
+     * @throws IllegalArgumentException if a record is malformed
+     */
+    public static ColumnarPointStore read(InputStream in, ForkJoinPool pool)
+            throws IOException {
+        byte[] bytes = new byte[1 << 16];
+        int length = 0;
+        int count;
+        while ((count = in.read(bytes, length, bytes.length - length)) > 0) {
+            length += count;
+            if (length == bytes.length) {
+                if (length > Integer.MAX_VALUE / 2)
+                    throw new IOException("Stream too long to buffer.");
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+        }
+        ByteBuffer data = ByteBuffer.wrap(bytes, 0, length);
+        Ingest ingest = new Ingest(pool);
+        ingest.parse(data, ingest.header(data, length), length);
+        return ingest.finish();
+    }
+
+    /*
+     * The result and the station ids of one input, which is parsed one
+     * mapped window at a time.
+     */
+    private static class Ingest {
+
+        final ForkJoinPool pool;
+        final List<ColumnarPointStore> parts = new ArrayList<>();
+        final Map<String, Integer> stations = new HashMap<>();
+        int variables = 1;
+        int size = 0;
+
+        Ingest(ForkJoinPool pool) {
+            this.pool = pool;
+        }
+
+        // count the variables named by the header line of data, returning
+        // the position of the first record
+        int header(ByteBuffer data, int to) {
+            int end = skipLine(data, 0, to);
+            int fields = 1;
+            for (int i = 0; i < end; i++)
+                if (data.get(i) == ',')
+                    fields++;
+            variables = Math.max(1, fields - (FIELDS - 1));
+            return end;
+        }
+
+        // parse the records in [from, to) of data, which are whole lines
+        void parse(ByteBuffer data, int from, int to) {
+
+            // cut the bytes into chunks, each ending on a line break
+            int count = 1;
+            if (pool != null)
+                count = Math.max(1, Math.min(pool.getParallelism() * 4,
+                        (to - from) / MIN_CHUNK));
+            List<Chunk> chunks = new ArrayList<>();
+            int start = from;
+            for (int c = 1; c <= count && start < to; c++) {
+                int end = c == count ? to : skipLine(data,
+                        Math.max(start, from + (int) ((long) (to - from) * c
+                                / count) - 1), to);
+                chunks.add(new Chunk(data, start, end, variables));
+                start = end;
+            }
+            if (pool == null)
+                chunks.forEach(Chunk::compute);
+            else
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(chunks);
+                    }
+                });
+
+            // number the stations of each chunk in the order they appear
+            for (Chunk chunk : chunks) {
+                int[] ids = new int[chunk.ids.size()];
+                for (int s = 0; s < ids.length; s++)
+                    ids[s] = stations.computeIfAbsent(chunk.ids.get(s),
+                            id -> stations.size());
+                chunk.store.renumberStations(ids);
+                parts.add(chunk.store);
+                size += chunk.store.size();
+            }
+        }
+
+        // join the stores of every chunk into one
+        ColumnarPointStore finish() {
+            ColumnarPointStore result = new ColumnarPointStore(size, variables);
+            for (ColumnarPointStore part : parts)
+                result.addAll(part);
+            return result;
+        }
+    }
+
+    /*
+     * Parses the lines of a range of bytes into a store of its own, with
+     * stations numbered in the order their ids appear in the range.
+     */
+    private static class Chunk extends RecursiveAction {
+
+        private final ByteBuffer data;
+        private final int from, to;
+        private final int variables;
+
+        ColumnarPointStore store;
+        final List<String> ids = new ArrayList<>();
+
+        Chunk(ByteBuffer data, int from, int to, int variables) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+            this.variables = variables;
+        }
+
+        @Override
+        protected void compute() {
+            store = new ColumnarPointStore((to - from) / 32, variables);
+            Map<String, Integer> seen = new HashMap<>();
+            int fields = FIELDS - 1 + variables;
+            int[] commas = new int[fields];
+            double[] values = new double[variables];
+
+            // the id field of the previous record, and its station
+            int idFrom = 0, idTo = 0;
+            int station = -1;
+
+            int position = from;
+            while (position < to) {
+                int next = skipLine(data, position, to);
+                int end = next;
+                if (end > position && data.get(end - 1) == '\n')
+                    end--;
+                if (end > position && data.get(end - 1) == '\r')
+                    end--;
+                if (end == position) {
+                    position = next;
+                    continue;
+                }
+
+                // the comma after each field, or the end of the line
+                int field = 0;
+                for (int i = position; i < end && field < fields; i++)
+                    if (data.get(i) == ',')
+                        commas[field++] = i;
+                if (field < fields)
+                    commas[field++] = end;
+                if (field < FIELDS)
+                    throw new IllegalArgumentException();
+
+                // records of a station are usually adjacent, so an id is
+                // only looked up when it differs from the one before
+                if (station < 0 ||
+                        !sameBytes(idFrom, idTo, position, commas[0])) {
+                    String id = text(data, position, commas[0]);
+                    Integer s = seen.get(id);
+                    if (s == null) {
+                        s = ids.size();
+                        seen.put(id, s);
+                        ids.add(id);
+                    }
+                    station = s;
+                    idFrom = position;
+                    idTo = commas[0];
+                }
+
+                int month = parseInt(data, commas[1] + 1, commas[2]);
+                if (month < 1 || month > 12)
+                    throw new IllegalArgumentException();
+                int day = PMPoint.dayOfYear(month,
+                        parseInt(data, commas[2] + 1, commas[3]));
+                for (int v = 0; v < variables; v++) {
+                    int f = FIELDS - 1 + v;
+                    values[v] = f < field && commas[f] > commas[f - 1] + 1
+                            ? parseDouble(data, commas[f - 1] + 1, commas[f])
+                            : Double.NaN;
+                }
+                store.add(station, day,
+                        parseDouble(data, commas[3] + 1, commas[4]),
+                        parseDouble(data, commas[4] + 1, commas[5]),
+                        values);
+                position = next;
+            }
+        }
+
+        // whether the bytes in [aFrom, aTo) equal those in [bFrom, bTo)
+        private boolean sameBytes(int aFrom, int aTo, int bFrom, int bTo) {
+            if (aTo - aFrom != bTo - bFrom)
+                return false;
+            for (int i = 0; i < aTo - aFrom; i++)
+                if (data.get(aFrom + i) != data.get(bFrom + i))
+                    return false;
+            return true;
+        }
+    }
+
+    /*
+     * Return the position just after the first line break at or after
+     * from, or to if there is none before it.
+     */
+    private static int skipLine(ByteBuffer data, int from, int to) {
+        int i = from;
+        while (i < to && data.get(i) != '\n')
+            i++;
+        return i < to ? i + 1 : to;
+    }
+
+    /*
+     * Parse the integer in [from, to) of data. Anything but an optional
+     * sign and up to nine digits is left to Integer.parseInt().
+     */
+    static int parseInt(ByteBuffer data, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (data.get(i) == '-' || data.get(i) == '+'))
+            negative = data.get(i++) == '-';
+        if (i == to || to - i > 9)
+            return Integer.parseInt(text(data, from, to));
+        int result = 0;
+        for (; i < to; i++) {
+            int digit = data.get(i) - '0';
+            if (digit < 0 || digit > 9)
+                return Integer.parseInt(text(data, from, to));
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /*
+     * Parse the decimal in [from, to) of data, with the result
+     * Double.parseDouble() would give. A plain decimal whose digits fit
+     * in 53 bits and which has at most 22 digits after its point is the
+     * exact quotient of two doubles, so one division rounds it correctly;
+     * anything else, such as an exponent, is left to Double.parseDouble().
+     */
+    static double parseDouble(ByteBuffer data, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (data.get(i) == '-' || data.get(i) == '+'))
+            negative = data.get(i++) == '-';
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < to; i++) {
+            int c = data.get(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 18)
+                    return Double.parseDouble(text(data, from, to));
+                mantissa = mantissa * 10 + (c - '0');
+                if (scale >= 0)
+                    scale++;
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                return Double.parseDouble(text(data, from, to));
+            }
+        }
+        if (digits == 0 || mantissa > MAX_EXACT || scale >= POWERS.length)
+            return Double.parseDouble(text(data, from, to));
+        double result = scale > 0 ? mantissa / POWERS[scale] : mantissa;
+        return negative ? -result : result;
+    }
+
+    // the bytes in [from, to) of data as a String
+    private static String text(ByteBuffer data, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = data.get(from + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,205 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+/**
+ * Inverse distance weighting from the squared distances a KDTree search
+ * produces. A neighbor at distance d from a query has the weight
+ * <blockquote>
+ * (1 / d)<sup>p</sup> = (d<sup>2</sup>)<sup>-p / 2</sup>,
+ * </blockquote>
+ * and the estimate is the weighted mean of the neighbors' values. When p
+ * is a multiple of one half, as every power of our grids is, the weight
+ * is a product of powers of d<sup>2</sup> and its square and fourth roots
+ * rather than a call to Math.pow().
+ * <p>
+ * The weight of a neighbor at distance 0 is infinite. If any neighbor has
+ * an infinite weight, the estimate is instead the mean of the values of
+ * those neighbors, the limit of the weighted mean as they approach the
+ * query, so coincident points never give NaN.
+ * <p>
+ * A kernel is built for a set of powers and fills the estimates of all of
+ * them from one array of neighbors. It holds no other state, so one
+ * kernel may be shared by any number of threads.
+ *
+ * @author Jason Franklin
+ */
+public class IdwKernel {
+
+    // largest number of halves in a power whose weights avoid Math.pow()
+    private static final int MAX_HALVES = 40;
+
+    private final double[] powers;
+
+    // the number of halves in each power, or -1 to use Math.pow()
+    private final int[] halves;
+
+    /**
+     * Allocate an IdwKernel for the given powers.
+     *
+     * @param powers the powers of the weights, in the order of estimates
+     * @throws IllegalArgumentException if there is no power, or a power is
+     *         not finite
+     */
+    public IdwKernel(double... powers) {
+        if (powers.length == 0)
+            throw new IllegalArgumentException();
+        this.powers = powers.clone();
+        halves = new int[powers.length];
+        for (int q = 0; q < powers.length; q++) {
+            if (Double.isNaN(powers[q]) || Double.isInfinite(powers[q]))
+                throw new IllegalArgumentException();
+            halves[q] = halves(powers[q]);
+        }
+    }
+
+    public int getPowerCount() {
+        return powers.length;
+    }
+
+    public double getPower(int q) {
+        return powers[q];
+    }
+
+    /**
+     * Return the weight of a neighbor at the given squared distance.
+     *
+     * @param power the power of the weight
+     * @param distanceSquared the squared distance of the neighbor
+     * @return (distanceSquared)<sup>-power / 2</sup>
+     */
+    public static double weight(double power, double distanceSquared) {
+        return weight(power, halves(power), distanceSquared);
+    }
+
+    /**
+     * Return the estimate from the first count neighbors.
+     *
+     * @param power the power of the weights
+     * @param distancesSquared the squared distance of each neighbor
+     * @param values the value of each neighbor
+     * @param count the number of neighbors
+     * @return the IDW estimate, or NaN if count is 0
+     */
+    public static double estimate(double power, double[] distancesSquared,
+                                  double[] values, int count) {
+        return accumulate(power, halves(power), distancesSquared, values,
+                count, null);
+    }
+
+    /**
+     * Return the estimate with the q-th power of this kernel from the
+     * first count neighbors.
+     *
+     * @param q the index of the power
+     * @param distancesSquared the squared distance of each neighbor
+     * @param values the value of each neighbor
+     * @param count the number of neighbors
+     * @return the IDW estimate, or NaN if count is 0
+     */
+    public double estimate(int q, double[] distancesSquared, double[] values,
+                           int count) {
+        return accumulate(powers[q], halves[q], distancesSquared, values,
+                count, null);
+    }
+
+    /**
+     * Fill estimates[q] with the estimate with every power q of this
+     * kernel from the first count neighbors.
+     *
+     * @param distancesSquared the squared distance of each neighbor
+     * @param values the value of each neighbor
+     * @param count the number of neighbors
+     * @param estimates the array to fill, of at least getPowerCount()
+     *                  elements
+     */
+    public void estimate(double[] distancesSquared, double[] values,
+                         int count, double[] estimates) {
+        for (int q = 0; q < powers.length; q++)
+            estimates[q] = estimate(q, distancesSquared, values, count);
+    }
+
+    /**
+     * Fill estimates[q][n] with the estimate with every power q of this
+     * kernel from the first n neighbors, for n in [1, count]. When the
+     * neighbors are sorted by increasing distance, as a NeighborHeap
+     * sorts them, estimates[q][n] is the estimate from the n nearest.
+     *
+     * @param distancesSquared the squared distance of each neighbor
+     * @param values the value of each neighbor
+     * @param count the number of neighbors
+     * @param estimates the table to fill, with getPowerCount() rows of at
+     *                  least count + 1 elements
+     */
+    public void estimatePrefixes(double[] distancesSquared, double[] values,
+                                 int count, double[][] estimates) {
+        for (int q = 0; q < powers.length; q++)
+            accumulate(powers[q], halves[q], distancesSquared, values, count,
+                    estimates[q]);
+    }
+
+    /*
+     * Return the estimate from the first count neighbors with power, of h
+     * halves. If prefixes is not null, prefixes[n] is also set to the
+     * estimate from the first n neighbors, for n in [1, count].
+     */
+    private static double accumulate(double power, int h,
+                                     double[] distancesSquared,
+                                     double[] values, int count,
+                                     double[] prefixes) {
+        double sum_d = 0.0;
+        double result = 0.0;
+        int coincident = 0;
+        double coincidentSum = 0.0;
+        double estimate = Double.NaN;
+        for (int n = 0; n < count; n++) {
+            double w = weight(power, h, distancesSquared[n]);
+            if (w == Double.POSITIVE_INFINITY) {
+                coincident++;
+                coincidentSum += values[n];
+            } else {
+                sum_d += w;
+                result += w * values[n];
+            }
+            estimate = coincident > 0 ? coincidentSum / coincident
+                                      : result / sum_d;
+            if (prefixes != null)
+                prefixes[n + 1] = estimate;
+        }
+        return estimate;
+    }
+
+    /*
+     * Return the number of halves in power, or -1 if it is not a whole
+     * number of halves in [0, MAX_HALVES / 2].
+     */
+    private static int halves(double power) {
+        double h = 2.0 * power;
+        return h >= 0.0 && h <= MAX_HALVES && h == Math.rint(h) ? (int) h
+                                                                : -1;
+    }
+
+    /*
+     * Return (d2)^(-power / 2). With h halves in power this is
+     * 1 / (d2)^(h / 4): h / 4 factors of d2, times the fourth root, square
+     * root or both for the remaining h % 4 quarters.
+     */
+    private static double weight(double power, int h, double d2) {
+        if (h < 0)
+            return Math.pow(d2, -power / 2.0);
+        double r = 1.0;
+        for (int i = h >> 2; i > 0; i--)
+            r *= d2;
+        switch (h & 3) {
+            case 1:
+                r *= Math.sqrt(Math.sqrt(d2));
+                break;
+            case 2:
+                r *= Math.sqrt(d2);
+                break;
+            case 3:
+                double root = Math.sqrt(d2);
+                r *= root * Math.sqrt(root);
+                break;
+        }
+        return 1.0 / r;
+    }
+}
@@ -1,87 +1,492 @@
 package edu.georgiasouthern.ceit.aeolus.structures;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * A k-d tree over Point objects, used for the nearest neighbor searches
+ * at the heart of our interpolation methods.
+ * <p>
+ * Rather than linking KDTreeNode objects together, this tree keeps its
+ * nodes in flat arrays. Node i stores its coordinates in the interleaved
+ * array coords (at offsets i * dimension through i * dimension +
+ * dimension - 1) and the indices of its children in the arrays left and
+ * right, with -1 marking an absent child. The root is always node 0, and
+ * the splitting axis of a node is its depth modulo the dimension. Searches
+ * therefore only touch a handful of primitive arrays, and serializing the
+ * tree never recurses through a chain of node references. The
+ * coordinates are left out of the serialized form and restored from the
+ * elements, so they are shipped once rather than twice.
+ * <p>
+ * A tree may also carry a label in [0, 64) for each node, such as the
+ * fold of a k-fold partition its element belongs to. Alongside the labels
+ * it keeps, for every node, a bitmask of the labels found in its subtree.
+ * Searches may then exclude one label: nodes carrying it are skipped, and
+ * subtrees holding nothing else are pruned without being visited. One
+ * labelled tree over a whole partition thus serves every fold of a cross
+ * validation.
+ * <p>
+ * Every node also records the handle of its element: its position among
+ * the elements the tree was built from, or, for a tree built by
+ * fromStore(), its handle in a PointStore. Such a tree holds no element
+ * objects at all, not even an array of them; its nodes read their
+ * measurements from the store, and it serializes as primitive arrays.
+ *
+ * @author Jason Franklin
+ */
 public class KDTree<T extends Point> implements Serializable {
 
+    // marks an absent child in the left and right arrays
+    private static final int NONE = -1;
+
+    // number of node slots allocated for an empty tree
+    private static final int INITIAL_CAPACITY = 16;
+
+    // subtrees of at most this many elements are built by a single task
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+    // queries of a batch search are handed to tasks in chunks of this size
+    private static final int BATCH_CHUNK = 1 << 10;
+
+    // labels are kept in the bits of a long
+    private static final int MAX_LABELS = 64;
+
     private final int dimension;
     private int size;
-    private KDTreeNode<T> root;
+
+    // the weights of an unweighted search, 1 on every axis
+    private final double[] unitWeights;
+
+    // interleaved coordinates of every node, not serialized since they
+    // are restored from the elements and the store by readObject()
+    private transient double[] coords;
+
+    // child indices of every node
+    private int[] left;
+    private int[] right;
+
+    // the element stored at every node, null for a node of the store; the
+    // array itself is null while every node is one of the store, so such a
+    // tree holds primitive arrays alone
+    private Object[] elements;
+
+    // the handle of the element of every node
+    private int[] handles;
+
+    // the store holding the elements of a tree built by fromStore()
+    private PointStore store;
+
+    // label of every node and bitmask of the labels in its subtree, both
+    // null for an unlabelled tree
+    private int[] labels;
+    private long[] masks;
 
     public KDTree(int dimension) {
         this.dimension = dimension;
+        unitWeights = new double[dimension];
+        Arrays.fill(unitWeights, 1.0);
         size = 0;
-        root = null;
+        allocate(INITIAL_CAPACITY, false);
     }
 
     public void addElement(T element) {
+        addElement(element, 0);
+    }
+
+    /**
+     * Add element to this tree with the given label. The label is ignored
+     * by an unlabelled tree, i.e. one that was not built with labels.
+     *
+     * @param element the element to be added
+     * @param label the label of the element, in [0, 64)
+     */
+    public void addElement(T element, int label) {
         if (element.getDimension() != dimension)
             throw new IllegalArgumentException();
-        int axis = 0;
-        if (isEmpty())
-            root = new KDTreeNode<T>(element);
-        else {
-            if (element.get(axis) <= root.get(axis))
-                if (root.getLeft() == null)
-                    root.setLeft(new KDTreeNode<T>(element));
-                else
-                    addElement(element, root.getLeft(), 
-                        (axis + 1) % dimension);
-            else
-                if (root.getRight() == null)
-                    root.setRight(new KDTreeNode<T>(element));
-                else
-                    addElement(element, root.getRight(), 
-                        (axis + 1) % dimension);
+        if (label < 0 || label >= MAX_LABELS)
+            throw new IllegalArgumentException();
+        ensureCapacity(size + 1);
+        int index = size;
+        setNode(index, element);
+        handles[index] = store == null ? index : NONE;
+        if (labels != null) {
+            labels[index] = label;
+            masks[index] = 1L << label;
+        }
+        if (index > 0) {
+            int node = 0;
+            int axis = 0;
+            while (true) {
+                if (labels != null)
+                    masks[node] |= 1L << label;
+                if (coords[index * dimension + axis] <=
+                        coords[node * dimension + axis]) {
+                    if (left[node] == NONE) {
+                        left[node] = index;
+                        break;
+                    }
+                    node = left[node];
+                }
+                else {
+                    if (right[node] == NONE) {
+                        right[node] = index;
+                        break;
+                    }
+                    node = right[node];
+                }
+                axis = (axis + 1) % dimension;
+            }
         }
         size++;
     }
 
-    // helper method
-    private void addElement(T element, KDTreeNode<T> node, int axis) {
-        if (element.get(axis) <= node.get(axis))
-            if (node.getLeft() == null)
-                node.setLeft(new KDTreeNode<T>(element));
-            else
-                addElement(element, node.getLeft(), (axis + 1) % dimension);
-        else
-            if (node.getRight() == null)
-                node.setRight(new KDTreeNode<T>(element));
-            else
-                addElement(element, node.getRight(), (axis + 1) % dimension);
+    /**
+     * Replace the contents of this tree with a balanced tree over
+     * elements. The median of each subtree along its splitting axis is
+     * found by linear-time selection rather than by sorting, and nodes are
+     * written directly into their final slots, so a build takes O(n log n)
+     * time. Elements with equal coordinates are ordered by their position
+     * in the list, which makes the root the element a stable sort on the
+     * first axis would place in the middle.
+     *
+     * @param elements the elements of the new tree, left unmodified
+     */
+    public void build(List<T> elements) {
+        build(elements, null);
     }
 
-    public void build(List<T> elements) {
-        root = null;
+    /**
+     * Replace the contents of this tree with a balanced tree over
+     * elements, building large subtrees as separate tasks in pool. The
+     * resulting tree is identical to the one built sequentially.
+     *
+     * @param elements the elements of the new tree, left unmodified
+     * @param pool the pool running the build, or null to build on the
+     *             calling thread
+     */
+    public void build(List<T> elements, ForkJoinPool pool) {
+        build(elements, null, pool);
+    }
+
+    /**
+     * Replace the contents of this tree with a balanced, labelled tree over
+     * elements, as build(elements, pool) does. The element at position i
+     * of elements is given the label labels[i].
+     *
+     * @param elements the elements of the new tree, left unmodified
+     * @param labels the label of each element, each in [0, 64), or null
+     *               for an unlabelled tree
+     * @param pool the pool running the build, or null to build on the
+     *             calling thread
+     */
+    public void build(List<T> elements, int[] labels, ForkJoinPool pool) {
+        int n = elements.size();
+        if (labels != null && labels.length != n)
+            throw new IllegalArgumentException();
+        allocate(Math.max(INITIAL_CAPACITY, n), labels != null);
         size = 0;
-        if (elements.size() > 0) 
-            build(elements, 0);
+        store = null;
+        for (T e : elements)
+            if (e.getDimension() != dimension)
+                throw new IllegalArgumentException();
+        if (labels != null)
+            for (int label : labels)
+                if (label < 0 || label >= MAX_LABELS)
+                    throw new IllegalArgumentException();
+
+        Object[] source = elements.toArray();
+        double[] points = new double[n * dimension];
+        for (int i = 0; i < n; i++)
+            for (int a = 0; a < dimension; a++)
+                points[i * dimension + a] = ((Point) source[i]).get(a);
+        new Builder(source, null, labels, points).run(pool);
+        size = n;
+        if (labels != null)
+            computeMasks();
     }
 
-    // helper method
-    private void build(List<T> elements, int axis) {
-        if (elements.size() <= 2) {
-            for (T e : elements)
-                addElement(e);
-            return;
+    /**
+     * Return a balanced tree over the measurements of store with the
+     * given handles, as build(elements, labels, pool) would build over
+     * their points. The tree keeps only the handles of its nodes, and
+     * getElement() returns a new PMPoint read from store.
+     *
+     * @param store the store holding the measurements
+     * @param handles the handle of each measurement of the tree
+     * @param labels the label of each measurement, each in [0, 64), or
+     *               null for an unlabelled tree
+     * @param pool the pool running the build, or null to build on the
+     *             calling thread
+     * @return the tree over those measurements
+     * @throws IllegalArgumentException if labels differs in length from
+     *         handles or a label is out of range
+     * @throws IndexOutOfBoundsException if a handle is not in store
+     */
+    public static KDTree<PMPoint> fromStore(PointStore store, int[] handles,
+                                            int[] labels, ForkJoinPool pool) {
+        int n = handles.length;
+        if (labels != null && labels.length != n)
+            throw new IllegalArgumentException();
+        if (labels != null)
+            for (int label : labels)
+                if (label < 0 || label >= MAX_LABELS)
+                    throw new IllegalArgumentException();
+
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        double[] points = new double[n * 3];
+        for (int i = 0; i < n; i++)
+            for (int a = 0; a < 3; a++)
+                points[i * 3 + a] = store.get(handles[i], a);
+        tree.allocate(Math.max(INITIAL_CAPACITY, n), labels != null);
+        tree.elements = null;
+        tree.store = store;
+        tree.new Builder(null, handles, labels, points).run(pool);
+        tree.size = n;
+        if (labels != null)
+            tree.computeMasks();
+        return tree;
+    }
+
+    /**
+     * Return a tree with the given nodes, such as one exported node by
+     * node through getElement(), getLeft(), getRight() and getLabel().
+     * The coordinates of each node are read from its element, so a tree
+     * can be stored as its elements and links alone and restored without
+     * rebuilding it.
+     *
+     * @param dimension the dimension of the tree
+     * @param elements the element of each node, root first
+     * @param left the index of the left child of each node, or -1
+     * @param right the index of the right child of each node, or -1
+     * @param labels the label of each node, or null for an unlabelled tree
+     * @param <T> the type of the elements
+     * @return the tree with those nodes
+     * @throws IllegalArgumentException if the arrays differ in length, a
+     *         child does not follow its parent, or a label is out of range
+     */
+    public static <T extends Point> KDTree<T> fromNodes(int dimension,
+                                                        List<T> elements,
+                                                        int[] left,
+                                                        int[] right,
+                                                        int[] labels) {
+        int n = elements.size();
+        if (left.length != n || right.length != n ||
+                (labels != null && labels.length != n))
+            throw new IllegalArgumentException();
+
+        KDTree<T> tree = new KDTree<>(dimension);
+        tree.allocate(Math.max(INITIAL_CAPACITY, n), labels != null);
+        for (int i = 0; i < n; i++) {
+            T element = elements.get(i);
+            if (element.getDimension() != dimension)
+                throw new IllegalArgumentException();
+
+            // a child after its parent rules out cycles and shared nodes
+            if ((left[i] != NONE && (left[i] <= i || left[i] >= n)) ||
+                    (right[i] != NONE && (right[i] <= i || right[i] >= n)))
+                throw new IllegalArgumentException();
+            if (labels != null && (labels[i] < 0 || labels[i] >= MAX_LABELS))
+                throw new IllegalArgumentException();
+
+            tree.setNode(i, element);
+            tree.handles[i] = i;
+            tree.left[i] = left[i];
+            tree.right[i] = right[i];
+            if (labels != null)
+                tree.labels[i] = labels[i];
+        }
+        tree.size = n;
+        if (labels != null)
+            tree.computeMasks();
+        return tree;
+    }
+
+    /**
+     * Replace the contents of this tree with a balanced, unlabelled tree
+     * over the nodes of source at the given indices, as build(elements,
+     * pool) would over those elements. An index may be given more than
+     * once, as in a bootstrap sample; each occurrence becomes a node of
+     * its own. Coordinates are copied from source rather than read back
+     * from the elements, and each node keeps the element and handle of
+     * its node in source.
+     *
+     * @param source the tree holding the sampled nodes, left unmodified
+     * @param indices the node index in source of each node of this tree
+     * @param pool the pool running the build, or null to build on the
+     *             calling thread
+     * @throws IllegalArgumentException if source differs in dimension
+     * @throws IndexOutOfBoundsException if an index is not a node of source
+     */
+    public void build(KDTree<T> source, int[] indices, ForkJoinPool pool) {
+        if (source.dimension != dimension)
+            throw new IllegalArgumentException();
+        int n = indices.length;
+        Object[] sample = source.elements == null ? null : new Object[n];
+        int[] sampleHandles = new int[n];
+        double[] points = new double[n * dimension];
+        for (int i = 0; i < n; i++) {
+            int index = indices[i];
+            if (index < 0 || index >= source.size)
+                throw new IndexOutOfBoundsException();
+            if (sample != null)
+                sample[i] = source.elements[index];
+            sampleHandles[i] = source.handles[index];
+            System.arraycopy(source.coords, index * dimension,
+                    points, i * dimension, dimension);
+        }
+
+        allocate(Math.max(INITIAL_CAPACITY, n), false);
+        if (sample == null)
+            elements = null;
+        size = 0;
+        store = source.store;
+        new Builder(sample, sampleHandles, null, points).run(pool);
+        size = n;
+    }
+
+    /*
+     * The state of a single bulk build. The source elements (if any) and
+     * their handles (by default, their positions) are addressed through
+     * perm, a permutation of their positions that is partially
+     * ordered by selection as the build proceeds. The subtree over
+     * perm[lo, hi) is written in preorder to the node slots starting at
+     * slot, so disjoint subtrees never share a slot and may be built
+     * concurrently.
+     */
+    private class Builder {
+
+        private final Object[] source;
+        private final int[] sourceHandles;
+        private final int[] sourceLabels;
+        private final double[] points;
+        private final int[] perm;
+
+        Builder(Object[] source, int[] sourceHandles, int[] sourceLabels,
+                double[] points) {
+            this.source = source;
+            this.sourceHandles = sourceHandles;
+            this.sourceLabels = sourceLabels;
+            this.points = points;
+            perm = new int[points.length / dimension];
+            for (int i = 0; i < perm.length; i++)
+                perm[i] = i;
+        }
+
+        // build the whole tree, in pool if it is large enough
+        void run(ForkJoinPool pool) {
+            int n = perm.length;
+            if (pool == null || n <= PARALLEL_THRESHOLD)
+                build(0, n, 0, 0);
+            else
+                pool.invoke(new Task(0, n, 0, 0));
+        }
+
+        // build the subtree over perm[lo, hi), returning its root slot
+        int build(int lo, int hi, int slot, int axis) {
+            if (lo >= hi)
+                return NONE;
+            int mid = place(lo, hi, slot, axis);
+            int next = axis + 1 == dimension ? 0 : axis + 1;
+            left[slot] = build(lo, mid, slot + 1, next);
+            right[slot] = build(mid + 1, hi, slot + 1 + mid - lo, next);
+            return slot;
+        }
+
+        // select the median of perm[lo, hi) and store it at slot
+        int place(int lo, int hi, int slot, int axis) {
+            int mid = lo + (hi - lo) / 2;
+            select(lo, hi, mid, axis);
+            int source_index = perm[mid];
+            System.arraycopy(points, source_index * dimension,
+                    coords, slot * dimension, dimension);
+            if (elements != null)
+                elements[slot] = source == null ? null : source[source_index];
+            handles[slot] = sourceHandles == null ? source_index
+                    : sourceHandles[source_index];
+            if (sourceLabels != null)
+                labels[slot] = sourceLabels[source_index];
+            return mid;
+        }
+
+        /*
+         * Rearrange perm[lo, hi) so that perm[k] holds the element of rank
+         * k - lo along axis, with smaller elements before it and larger
+         * ones after it (Hoare's selection with a median of three pivot).
+         */
+        void select(int lo, int hi, int k, int axis) {
+            while (hi - lo > 1) {
+                int a = lo, b = lo + (hi - lo) / 2, c = hi - 1;
+                int pivot;
+                if (less(perm[a], perm[b], axis))
+                    pivot = less(perm[b], perm[c], axis) ? b :
+                            (less(perm[a], perm[c], axis) ? c : a);
+                else
+                    pivot = less(perm[a], perm[c], axis) ? a :
+                            (less(perm[b], perm[c], axis) ? c : b);
+
+                swap(pivot, hi - 1);
+                int p = perm[hi - 1];
+                int store = lo;
+                for (int i = lo; i < hi - 1; i++)
+                    if (less(perm[i], p, axis))
+                        swap(i, store++);
+                swap(store, hi - 1);
+
+                if (k == store)
+                    return;
+                else if (k < store)
+                    hi = store;
+                else
+                    lo = store + 1;
+            }
+        }
+
+        // order source elements by coordinate, then by position
+        boolean less(int i, int j, int axis) {
+            double x = points[i * dimension + axis];
+            double y = points[j * dimension + axis];
+            return x < y || (x == y && i < j);
         }
-        final int final_axis = axis;
-        elements.sort(new Comparator<T>() {
-            public int compare(T e1, T e2) {
-              if (e1.get(final_axis) < e2.get(final_axis))
-                  return -1;
-              else if (e1.get(final_axis) == e2.get(final_axis))
-                  return 0;
-              else
-                  return 1;
+
+        void swap(int i, int j) {
+            int tmp = perm[i];
+            perm[i] = perm[j];
+            perm[j] = tmp;
+        }
+
+        /*
+         * Builds a subtree like build(), forking its children while they
+         * are larger than PARALLEL_THRESHOLD.
+         */
+        class Task extends RecursiveAction {
+
+            private final int lo, hi, slot, axis;
+
+            Task(int lo, int hi, int slot, int axis) {
+                this.lo = lo;
+                this.hi = hi;
+                this.slot = slot;
+                this.axis = axis;
             }
-        });
-        int mid = elements.size() / 2;
-        addElement(elements.get(mid));
-        build(elements.subList(0, mid), (axis + 1) % dimension);
-        build(elements.subList(mid + 1, elements.size()),
-            (axis + 1) % dimension);
+
+            @Override
+            protected void compute() {
+                if (hi - lo <= PARALLEL_THRESHOLD) {
+                    build(lo, hi, slot, axis);
+                    return;
+                }
+                int mid = place(lo, hi, slot, axis);
+                int next = axis + 1 == dimension ? 0 : axis + 1;
+                left[slot] = lo < mid ? slot + 1 : NONE;
+                right[slot] = mid + 1 < hi ? slot + 1 + mid - lo : NONE;
+                invokeAll(new Task(lo, mid, slot + 1, next),
+                        new Task(mid + 1, hi, slot + 1 + mid - lo, next));
+            }
+        }
     }
 
     public int getDimension() {
@@ -89,48 +494,576 @@ public class KDTree<T extends Point> implements Serializable {
     }
 
     public T getRootElement() {
-        return root.getElement();
+        return isEmpty() ? null : getElement(0);
     }
 
-    public boolean isEmpty() { 
+    public boolean isEmpty() {
         return size == 0;
     }
 
-    public int size() { 
+    public int size() {
         return size;
     }
 
+    /**
+     * Return the element stored at a node, e.g. one named by the node
+     * indices a NeighborHeap collects.
+     *
+     * @param index the index of the node
+     * @return the element stored at that node
+     */
+    @SuppressWarnings("unchecked")
+    public T getElement(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        Object element = element(index);
+        if (element == null)
+            return (T) store.getPoint(handles[index]);
+        return (T) element;
+    }
+
+    /**
+     * Return the value that follows the coordinates in the tuple of the
+     * element of a node, i.e. the measurement of a PMPoint, without
+     * creating a PMPoint for a node of a store.
+     *
+     * @param index the index of the node
+     * @return the value of the element of that node
+     */
+    public double getValue(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        Object element = element(index);
+        if (element == null)
+            return store.getValue(handles[index]);
+        return ((Point) element).get(dimension);
+    }
+
+    /**
+     * Return the number of variables of the elements of this tree: those
+     * of its store for a tree built by fromStore(), and otherwise 1.
+     *
+     * @return the number of variables of each element
+     */
+    public int getVariableCount() {
+        return store == null ? 1 : store.getVariableCount();
+    }
+
+    /**
+     * Return the value of a variable of the element of a node, or NaN if
+     * it was not measured. Variable 0 is getValue(index); the others are
+     * read from the store of a tree built by fromStore().
+     *
+     * @param index the index of the node
+     * @param variable the variable, in [0, getVariableCount())
+     * @return the value of that variable
+     */
+    public double getValue(int index, int variable) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        Object element = element(index);
+        if (element == null)
+            return store.getValue(handles[index], variable);
+        if (variable != 0)
+            throw new IndexOutOfBoundsException();
+        return ((Point) element).get(dimension);
+    }
+
+    /**
+     * Return the handle of the element of a node: its handle in the store
+     * of a tree built by fromStore(), or otherwise its position among the
+     * elements the tree was built from and then added to it. An element
+     * added to a tree of a store has no handle, i.e. -1.
+     *
+     * @param index the index of the node
+     * @return the handle of the element of that node
+     */
+    public int getHandle(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        return handles[index];
+    }
+
+    /**
+     * Return the coordinate of a node along axis.
+     *
+     * @param index the index of the node
+     * @param axis the axis of the coordinate
+     * @return the coordinate of that node
+     */
+    public double getCoordinate(int index, int axis) {
+        if (index < 0 || index >= size || axis < 0 || axis >= dimension)
+            throw new IndexOutOfBoundsException();
+        return coords[index * dimension + axis];
+    }
+
+    /**
+     * Return the coordinates of every node, interleaved in node order
+     * like the queries of a batch search. Searching this array as a batch
+     * finds the neighbors of every element of the tree.
+     *
+     * @return a copy of the interleaved coordinates of all nodes
+     */
+    public double[] getCoordinates() {
+        return Arrays.copyOf(coords, size * dimension);
+    }
+
+    /**
+     * Return the label of a node, or 0 if this tree is unlabelled.
+     *
+     * @param index the index of the node
+     * @return the label of that node
+     */
+    public int getLabel(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        return labels == null ? 0 : labels[index];
+    }
+
+    public boolean isLabelled() {
+        return labels != null;
+    }
+
+    /**
+     * Return the index of the left child of a node, or -1 if it has none.
+     *
+     * @param index the index of the node
+     * @return the index of the left child of that node
+     */
+    public int getLeft(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        return left[index];
+    }
+
+    /**
+     * Return the index of the right child of a node, or -1 if it has none.
+     *
+     * @param index the index of the node
+     * @return the index of the right child of that node
+     */
+    public int getRight(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        return right[index];
+    }
+
     public NearestNeighborList<T> getNearestNeighbors(int k, T value) {
-        NearestNeighborList<T> neighborList = 
-                new NearestNeighborList(k, value);
-        searchNode(value, root, neighborList);
+        NearestNeighborList<T> neighborList =
+                new NearestNeighborList<>(k, value);
+        NeighborHeap heap = new NeighborHeap(k);
+        getNearestNeighbors(value, heap);
+        for (int i = 0; i < heap.size(); i++)
+            neighborList.list.add(getElement(heap.getIndex(i)));
         return neighborList;
     }
 
-    private void searchNode(T value, KDTreeNode<T> curr, 
-            NearestNeighborList<T> neighborList) {
+    /**
+     * Fill heap with the nodes nearest to value, up to the capacity of
+     * heap. The heap is reset first and sorted by increasing distance
+     * once the search is complete. No objects are allocated, so callers
+     * issuing many queries should reuse one heap per thread.
+     *
+     * @param value the query point
+     * @param heap the collector for the nearest nodes
+     */
+    public void getNearestNeighbors(T value, NeighborHeap heap) {
+        getNearestNeighbors(value, heap, NONE);
+    }
 
-        if (curr == null)
-            return;
+    /**
+     * Fill heap with the nodes nearest to value, as
+     * getNearestNeighbors(value, heap) does, ignoring every node labelled
+     * excludedLabel. In a tree over a k-fold partition labelled by fold,
+     * this finds the neighbors of value in the training set of fold
+     * excludedLabel.
+     *
+     * @param value the query point
+     * @param heap the collector for the nearest nodes
+     * @param excludedLabel the label of the nodes to ignore, or -1 to
+     *                      ignore none
+     */
+    public void getNearestNeighbors(T value, NeighborHeap heap,
+                                    int excludedLabel) {
+        getNearestNeighbors(value, heap, excludedLabel, null);
+    }
+
+    /**
+     * Fill heap with the nodes nearest to value under a weighted metric,
+     * ignoring every node labelled excludedLabel. The squared distance
+     * between two points is the sum over all axes of weights[a] times the
+     * squared difference along axis a, so scaling an axis by c at query
+     * time is the same as giving it weight c * c. Subtrees are pruned by
+     * their weighted box distance, so the result is exactly that of a
+     * tree built over the rescaled points.
+     *
+     * @param value the query point
+     * @param heap the collector for the nearest nodes
+     * @param excludedLabel the label of the nodes to ignore, or -1 to
+     *                      ignore none
+     * @param weights the non-negative weight of each axis, or null to
+     *                weigh every axis by 1
+     */
+    public void getNearestNeighbors(T value, NeighborHeap heap,
+                                    int excludedLabel, double[] weights) {
+        if (value.getDimension() != dimension)
+            throw new IllegalArgumentException();
+        double[] query = heap.queryBuffer(dimension);
+        for (int a = 0; a < dimension; a++)
+            query[a] = value.get(a);
+        getNearestNeighbors(query, heap, excludedLabel, weights);
+    }
+
+    /**
+     * Fill heap with the nodes nearest to the location given by query,
+     * which holds one coordinate per axis of this tree.
+     *
+     * @param query the coordinates of the query point
+     * @param heap the collector for the nearest nodes
+     */
+    public void getNearestNeighbors(double[] query, NeighborHeap heap) {
+        getNearestNeighbors(query, heap, NONE);
+    }
+
+    /**
+     * Fill heap with the nodes nearest to the location given by query,
+     * ignoring every node labelled excludedLabel.
+     *
+     * @param query the coordinates of the query point
+     * @param heap the collector for the nearest nodes
+     * @param excludedLabel the label of the nodes to ignore, or -1 to
+     *                      ignore none
+     */
+    public void getNearestNeighbors(double[] query, NeighborHeap heap,
+                                    int excludedLabel) {
+        getNearestNeighbors(query, heap, excludedLabel, null);
+    }
+
+    /**
+     * Fill heap with the nodes nearest to the location given by query
+     * under a weighted metric, as getNearestNeighbors(value, heap,
+     * excludedLabel, weights) does.
+     *
+     * @param query the coordinates of the query point
+     * @param heap the collector for the nearest nodes
+     * @param excludedLabel the label of the nodes to ignore, or -1 to
+     *                      ignore none
+     * @param weights the non-negative weight of each axis, or null to
+     *                weigh every axis by 1
+     */
+    public void getNearestNeighbors(double[] query, NeighborHeap heap,
+                                    int excludedLabel, double[] weights) {
+        if (excludedLabel >= MAX_LABELS)
+            throw new IllegalArgumentException();
+        if (weights == null)
+            weights = unitWeights;
+        else if (weights.length != dimension)
+            throw new IllegalArgumentException();
+        else
+            for (double w : weights)
+                if (!(w >= 0.0) || Double.isInfinite(w))
+                    throw new IllegalArgumentException();
+        heap.reset();
+        if (!isEmpty())
+            search(query, heap, excludedLabel, weights);
+        heap.sort();
+    }
 
-        // make darn sure this works as expected!
-        neighborList.add(curr);
+    /**
+     * Search for the k nearest neighbors of every query in a batch. The
+     * queries are interleaved in queries, dimension values per query, and
+     * are searched in Morton order so that consecutive searches share
+     * most of their paths through the tree. Results are returned in the
+     * original order of the queries.
+     *
+     * @param k the number of neighbors to find per query
+     * @param queries the interleaved coordinates of the queries
+     * @return the neighbors of every query
+     */
+    public NeighborTable getNearestNeighbors(int k, double[] queries) {
+        return getNearestNeighbors(k, queries, null);
+    }
+
+    /**
+     * Search for the k nearest neighbors of every query in a batch, as
+     * getNearestNeighbors(k, queries) does, splitting the Morton ordered
+     * queries into chunks that are searched as separate tasks in pool.
+     *
+     * @param k the number of neighbors to find per query
+     * @param queries the interleaved coordinates of the queries
+     * @param pool the pool running the searches, or null to search on the
+     *             calling thread
+     * @return the neighbors of every query
+     */
+    public NeighborTable getNearestNeighbors(int k, double[] queries,
+                                             ForkJoinPool pool) {
+        return getNearestNeighbors(k, queries, null, pool);
+    }
+
+    /**
+     * Search for the k nearest neighbors of every query in a batch under
+     * a weighted metric, as getNearestNeighbors(k, queries, pool) and
+     * getNearestNeighbors(query, heap, -1, weights) do.
+     *
+     * @param k the number of neighbors to find per query
+     * @param queries the interleaved coordinates of the queries
+     * @param weights the non-negative weight of each axis, or null to
+     *                weigh every axis by 1
+     * @param pool the pool running the searches, or null to search on the
+     *             calling thread
+     * @return the neighbors of every query
+     */
+    public NeighborTable getNearestNeighbors(int k, double[] queries,
+                                             double[] weights,
+                                             ForkJoinPool pool) {
+        if (queries.length % dimension != 0)
+            throw new IllegalArgumentException();
+        int count = queries.length / dimension;
+        NeighborTable table = new NeighborTable(k, count);
+        int[] order = MortonOrder.order(queries, count, dimension);
+        BatchTask task =
+                new BatchTask(k, queries, weights, order, table, 0, count);
+        if (pool == null || count <= BATCH_CHUNK)
+            task.search();
+        else
+            pool.invoke(task);
+        return table;
+    }
 
-        int axis = curr.getLevel() % dimension;
-        boolean left = true;
-        if (value.get(axis) <= curr.get(axis)) 
-            searchNode(value, curr.getLeft(), neighborList);
-        else {
-            searchNode(value, curr.getRight(), neighborList);
-            left = false;
+    /**
+     * Search for the k nearest neighbors of every element of values, as
+     * getNearestNeighbors(k, queries, pool) does.
+     *
+     * @param k the number of neighbors to find per query
+     * @param values the query points
+     * @param pool the pool running the searches, or null to search on the
+     *             calling thread
+     * @return the neighbors of every query, in the order of values
+     */
+    public NeighborTable getNearestNeighbors(int k, List<T> values,
+                                             ForkJoinPool pool) {
+        double[] queries = new double[values.size() * dimension];
+        int offset = 0;
+        for (T value : values) {
+            if (value.getDimension() != dimension)
+                throw new IllegalArgumentException();
+            for (int a = 0; a < dimension; a++)
+                queries[offset++] = value.get(a);
         }
+        return getNearestNeighbors(k, queries, pool);
+    }
 
-        if (Math.abs(curr.get(axis) - value.get(axis)) < 
-                neighborList.getLast().euclideanDistance(value)) {
-            if (left)
-                searchNode(value, curr.getRight(), neighborList);
-            else
-                searchNode(value, curr.getLeft(), neighborList);
+    /*
+     * Searches the queries at positions order[lo, hi) of a batch, splitting
+     * the range in half until it is no larger than BATCH_CHUNK. Each chunk
+     * reuses one NeighborHeap for all of its queries.
+     */
+    private class BatchTask extends RecursiveAction {
+
+        private final int k;
+        private final double[] queries;
+        private final double[] weights;
+        private final int[] order;
+        private final NeighborTable table;
+        private final int lo, hi;
+
+        BatchTask(int k, double[] queries, double[] weights, int[] order,
+                  NeighborTable table, int lo, int hi) {
+            this.k = k;
+            this.queries = queries;
+            this.weights = weights;
+            this.order = order;
+            this.table = table;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= BATCH_CHUNK) {
+                search();
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(
+                    new BatchTask(k, queries, weights, order, table, lo, mid),
+                    new BatchTask(k, queries, weights, order, table, mid, hi));
+        }
+
+        // search every query in the range on the calling thread
+        void search() {
+            NeighborHeap heap = new NeighborHeap(k);
+            double[] query = heap.queryBuffer(dimension);
+            for (int i = lo; i < hi; i++) {
+                System.arraycopy(queries, order[i] * dimension,
+                        query, 0, dimension);
+                getNearestNeighbors(query, heap, NONE, weights);
+                table.set(order[i], heap);
+            }
+        }
+    }
+
+    /*
+     * Search the tree without recursion. Every pending subtree on the stack
+     * carries the squared distance from the query to its bounding box,
+     * made up of one offset per axis as in Arya and Mount's incremental
+     * distance calculation. The near child of a node shares its parent's
+     * box distance, while the far child replaces the offset along the
+     * splitting axis by the gap to the splitting plane, so a far subtree is
+     * skipped as soon as its box lies beyond the current k-th distance.
+     * Boxes exactly at that distance are still visited, since they may
+     * hold a tied node that the heap orders first. For that the far box
+     * distance is summed afresh by boxDistance() rather than updated by
+     * subtracting the old offset, whose rounding could lift it above the
+     * distance of such a node. Offsets stay unweighted on the stack; each
+     * is weighted as it enters a box distance.
+     */
+    private void search(double[] query, NeighborHeap heap, int excluded,
+                        double[] weights) {
+        SearchStack stack = heap.stack;
+        stack.reset(dimension);
+        double[] offsets = stack.current;
+
+        // a subtree whose mask equals excludedMask holds only excluded nodes
+        boolean exclude = excluded >= 0 && labels != null;
+        long excludedMask = exclude ? 1L << excluded : 0L;
+
+        while (stack.top > 0) {
+            int entry = stack.pop();
+            double bound = stack.bounds[entry];
+            if (bound > heap.getBound())
+                continue;
+            int curr = stack.nodes[entry];
+            int axis = stack.axes[entry];
+
+            // descend to a leaf along the near side, deferring far sides
+            while (curr != NONE) {
+                if (exclude && masks[curr] == excludedMask)
+                    break;
+                if (!exclude || labels[curr] != excluded)
+                    heap.offer(curr, distanceSquared(query, curr, weights));
+
+                double gap = query[axis] - coords[curr * dimension + axis];
+                int near = gap <= 0.0 ? left[curr] : right[curr];
+                int far = gap <= 0.0 ? right[curr] : left[curr];
+                int next = axis + 1 == dimension ? 0 : axis + 1;
+
+                if (far != NONE) {
+                    double farBound = boxDistance(offsets, weights, axis,
+                            gap);
+                    if (farBound <= heap.getBound())
+                        stack.push(far, next, farBound, axis, gap);
+                }
+
+                curr = near;
+                axis = next;
+            }
+        }
+    }
+
+    /*
+     * Return the weighted squared distance from the query to the box whose
+     * offsets are those given, except gap along axis. The terms are summed
+     * in axis order and each is rounded like the matching term of
+     * distanceSquared(), so the result never exceeds the distance of a
+     * node inside the box, even one lying exactly on its boundary.
+     */
+    private static double boxDistance(double[] offsets, double[] weights,
+                                      int axis, double gap) {
+        double d = 0.0;
+        for (int a = 0; a < offsets.length; a++) {
+            double offset = a == axis ? gap : offsets[a];
+            d += weights[a] * offset * offset;
+        }
+        return d;
+    }
+
+    // weighted squared distance from query to the coordinates of node
+    private double distanceSquared(double[] query, int node,
+                                   double[] weights) {
+        double d = 0.0;
+        int offset = node * dimension;
+        for (int a = 0; a < dimension; a++) {
+            double diff = coords[offset + a] - query[a];
+            d += weights[a] * diff * diff;
+        }
+        return d;
+    }
+
+    // store element and its coordinates in slot index, with no children
+    private void setNode(int index, T element) {
+        int offset = index * dimension;
+        for (int a = 0; a < dimension; a++)
+            coords[offset + a] = element.get(a);
+        left[index] = NONE;
+        right[index] = NONE;
+        if (elements == null)
+            elements = new Object[left.length];
+        elements[index] = element;
+    }
+
+    // the element stored at a node, or null for a node of the store
+    private Object element(int index) {
+        return elements == null ? null : elements[index];
+    }
+
+    /*
+     * Compute the label mask of every subtree. Children follow their
+     * parents in node order, so a reverse sweep sees every subtree before
+     * its root.
+     */
+    private void computeMasks() {
+        for (int i = size - 1; i >= 0; i--) {
+            long mask = 1L << labels[i];
+            if (left[i] != NONE)
+                mask |= masks[left[i]];
+            if (right[i] != NONE)
+                mask |= masks[right[i]];
+            masks[i] = mask;
+        }
+    }
+
+    /*
+     * Restore the coordinates of every node, which are those of its
+     * element, or of its measurement in the store, so a serialized tree
+     * does not carry a second copy of them.
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        coords = new double[left.length * dimension];
+        for (int i = 0; i < size; i++) {
+            Object element = element(i);
+            for (int a = 0; a < dimension; a++)
+                coords[i * dimension + a] = element == null
+                        ? store.get(handles[i], a)
+                        : ((Point) element).get(a);
+        }
+    }
+
+    private void allocate(int capacity, boolean labelled) {
+        coords = new double[capacity * dimension];
+        left = new int[capacity];
+        right = new int[capacity];
+        elements = new Object[capacity];
+        handles = new int[capacity];
+        labels = labelled ? new int[capacity] : null;
+        masks = labelled ? new long[capacity] : null;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= left.length)
+            return;
+        int newCapacity = Math.max(capacity, left.length * 2);
+        coords = Arrays.copyOf(coords, newCapacity * dimension);
+        left = Arrays.copyOf(left, newCapacity);
+        right = Arrays.copyOf(right, newCapacity);
+        if (elements != null)
+            elements = Arrays.copyOf(elements, newCapacity);
+        handles = Arrays.copyOf(handles, newCapacity);
+        if (labels != null) {
+            labels = Arrays.copyOf(labels, newCapacity);
+            masks = Arrays.copyOf(masks, newCapacity);
         }
     }
 }
@@ -0,0 +1,426 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A read-only k-d tree of PMPoints searched straight from a memory-mapped
+ * index file, so that a process can query a tree built elsewhere without
+ * parsing or deserializing anything. Every JVM on a host that maps the
+ * same file shares its pages through the page cache.
+ * <p>
+ * An index file is written by write() from a built KDTree and holds that
+ * tree's flat node arrays (see KDTree) in little-endian order:
+ * <blockquote>
+ * magic, version, dimension, size, variables, 0 (6 ints),<br>
+ * coordinates (size * dimension doubles, interleaved by node),<br>
+ * values (variables columns of size doubles, the PM<sub>2.5</sub>
+ * measurement of each node first, NaN where a node has no value),<br>
+ * left, right (size ints each, -1 marking an absent child).
+ * </blockquote>
+ * The trailing 0 keeps the doubles 8-byte aligned. Files of version 1,
+ * whose header stops after size and which hold a single value column,
+ * are still read.
+ * <p>
+ * Nodes keep their indices, so a MappedKDTree finds exactly the neighbors
+ * the KDTree it was written from finds, in the same order.
+ *
+ * @author Jason Franklin
+ */
+public class MappedKDTree {
+
+    /**
+     * The first int of every index file.
+     */
+    public static final int MAGIC = 0x414F4C58;
+
+    /**
+     * The version of the index format written by this class.
+     */
+    public static final int VERSION = 2;
+
+    // marks an absent child in the left and right arrays
+    private static final int NONE = -1;
+
+    // bytes taken by the header, and by that of a version 1 file
+    private static final int HEADER = 24;
+    private static final int HEADER_V1 = 16;
+
+    // bytes copied to the file by each write of the channel
+    private static final int WRITE_CHUNK = 1 << 16;
+
+    // the dimension of a PMPoint
+    private static final int DIMENSION = 3;
+
+    private final int size;
+
+    // the number of value columns
+    private final int variables;
+
+    // the weights of an unweighted search, 1 on every axis
+    private final double[] unitWeights;
+
+    // views of the node arrays in the mapped file
+    private final DoubleBuffer coords;
+    private final DoubleBuffer values;
+    private final IntBuffer left;
+    private final IntBuffer right;
+
+    private MappedKDTree(int size, int variables, DoubleBuffer coords,
+                         DoubleBuffer values, IntBuffer left,
+                         IntBuffer right) {
+        this.size = size;
+        this.variables = variables;
+        this.coords = coords;
+        this.values = values;
+        this.left = left;
+        this.right = right;
+        unitWeights = new double[DIMENSION];
+        Arrays.fill(unitWeights, 1.0);
+    }
+
+    /**
+     * Write tree to an index file at path, replacing any file there. The
+     * index is written to a temporary file in the same directory first
+     * and then moved into place, so a process opening path concurrently
+     * sees either the old index or the complete new one.
+     *
+     * @param tree the tree to be written
+     * @param path the location of the index file
+     * @throws IllegalArgumentException if tree is not of dimension 3
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(KDTree<PMPoint> tree, Path path)
+            throws IOException {
+        if (tree.getDimension() != DIMENSION)
+            throw new IllegalArgumentException();
+        int n = tree.size();
+        int variables = tree.getVariableCount();
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, path.getFileName().toString(),
+                ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_CHUNK)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(DIMENSION).putInt(n)
+                    .putInt(variables).putInt(0);
+
+            double[] points = tree.getCoordinates();
+            for (double c : points)
+                put(channel, buffer, 8).putDouble(c);
+            for (int v = 0; v < variables; v++)
+                for (int i = 0; i < n; i++)
+                    put(channel, buffer, 8).putDouble(tree.getValue(i, v));
+            for (int i = 0; i < n; i++)
+                put(channel, buffer, 4).putInt(tree.getLeft(i));
+            for (int i = 0; i < n; i++)
+                put(channel, buffer, 4).putInt(tree.getRight(i));
+            drain(channel, buffer);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // make room for count more bytes in buffer, flushing it if needed
+    private static ByteBuffer put(FileChannel channel, ByteBuffer buffer,
+                                  int count) throws IOException {
+        if (buffer.remaining() < count)
+            drain(channel, buffer);
+        return buffer;
+    }
+
+    // write the contents of buffer to channel and clear it
+    private static void drain(FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Map the index file at path read-only. Only the header is read and
+     * the child links checked; all other pages are loaded by the
+     * operating system as searches touch them. The mapping stays valid
+     * after the file is closed, until the returned tree is unreachable.
+     *
+     * @param path the location of the index file
+     * @return the tree held by the index file
+     * @throws IOException if the file cannot be read, is not an index
+     *         file, or has a version or dimension this class cannot read
+     */
+    public static MappedKDTree open(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_V1 || length > Integer.MAX_VALUE)
+                throw new IOException("Not an index file: " + path);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != MAGIC)
+            throw new IOException("Not an index file: " + path);
+        int version = buffer.getInt(4);
+        if (version != 1 && version != VERSION)
+            throw new IOException("Unsupported index version: " + version);
+        int header = version == 1 ? HEADER_V1 : HEADER;
+        if (buffer.capacity() < header)
+            throw new IOException("Truncated index file: " + path);
+        if (buffer.getInt(8) != DIMENSION)
+            throw new IOException("Unsupported index dimension: " +
+                    buffer.getInt(8));
+        int n = buffer.getInt(12);
+        int variables = version == 1 ? 1 : buffer.getInt(16);
+        if (variables < 1)
+            throw new IOException("Corrupt index file: " + path);
+        if (n < 0 || buffer.capacity() !=
+                header + 8L * n * (DIMENSION + (long) variables) + 8L * n)
+            throw new IOException("Truncated index file: " + path);
+
+        int offset = header;
+        DoubleBuffer coords = slice(buffer, offset, n * DIMENSION * 8)
+                .asDoubleBuffer();
+        offset += n * DIMENSION * 8;
+        DoubleBuffer values = slice(buffer, offset, n * variables * 8)
+                .asDoubleBuffer();
+        offset += n * variables * 8;
+        IntBuffer left = slice(buffer, offset, n * 4).asIntBuffer();
+        offset += n * 4;
+        IntBuffer right = slice(buffer, offset, n * 4).asIntBuffer();
+
+        // a child after its parent rules out cycles in a corrupt file
+        for (int i = 0; i < n; i++) {
+            int l = left.get(i);
+            int r = right.get(i);
+            if ((l != NONE && (l <= i || l >= n)) ||
+                    (r != NONE && (r <= i || r >= n)))
+                throw new IOException("Corrupt index file: " + path);
+        }
+        return new MappedKDTree(n, variables, coords, values, left, right);
+    }
+
+    // the length bytes of buffer from offset, in little-endian order
+    private static ByteBuffer slice(ByteBuffer buffer, int offset,
+                                    int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getDimension() {
+        return DIMENSION;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the coordinate of a node along axis.
+     *
+     * @param index the index of the node
+     * @param axis the axis of the coordinate
+     * @return the coordinate of that node
+     */
+    public double getCoordinate(int index, int axis) {
+        if (index < 0 || index >= size || axis < 0 || axis >= DIMENSION)
+            throw new IndexOutOfBoundsException();
+        return coords.get(index * DIMENSION + axis);
+    }
+
+    /**
+     * Return the PM<sub>2.5</sub> measurement of a node, e.g. one named by
+     * the node indices a NeighborHeap collects.
+     *
+     * @param index the index of the node
+     * @return the measurement of that node
+     */
+    public double getValue(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        return values.get(index);
+    }
+
+    /**
+     * Return the number of variables of the nodes of this tree, as
+     * KDTree.getVariableCount() gave it for the tree that was written.
+     *
+     * @return the number of value columns of the index file
+     */
+    public int getVariableCount() {
+        return variables;
+    }
+
+    /**
+     * Return the value of a variable of a node, or NaN if it was not
+     * measured. Variable 0 is getValue(index).
+     *
+     * @param index the index of the node
+     * @param variable the variable, in [0, getVariableCount())
+     * @return the value of that variable
+     */
+    public double getValue(int index, int variable) {
+        if (index < 0 || index >= size || variable < 0 ||
+                variable >= variables)
+            throw new IndexOutOfBoundsException();
+        return values.get(variable * size + index);
+    }
+
+    /**
+     * Return a new PMPoint holding the coordinates and measurement of a
+     * node.
+     *
+     * @param index the index of the node
+     * @return the point stored at that node
+     */
+    public PMPoint getElement(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException();
+        int offset = index * DIMENSION;
+        return PMPoint.valueOf(coords.get(offset), coords.get(offset + 1),
+                coords.get(offset + 2), values.get(index));
+    }
+
+    public NearestNeighborList<PMPoint> getNearestNeighbors(int k,
+                                                            PMPoint value) {
+        NearestNeighborList<PMPoint> neighborList =
+                new NearestNeighborList<>(k, value);
+        NeighborHeap heap = new NeighborHeap(k);
+        getNearestNeighbors(value, heap);
+        for (int i = 0; i < heap.size(); i++)
+            neighborList.list.add(getElement(heap.getIndex(i)));
+        return neighborList;
+    }
+
+    /**
+     * Fill heap with the nodes nearest to value, as
+     * KDTree.getNearestNeighbors(value, heap) does.
+     *
+     * @param value the query point
+     * @param heap the collector for the nearest nodes
+     */
+    public void getNearestNeighbors(PMPoint value, NeighborHeap heap) {
+        double[] query = heap.queryBuffer(DIMENSION);
+        for (int a = 0; a < DIMENSION; a++)
+            query[a] = value.get(a);
+        getNearestNeighbors(query, heap, null);
+    }
+
+    /**
+     * Fill heap with the nodes nearest to the location given by query
+     * under a weighted metric, as KDTree.getNearestNeighbors(query, heap,
+     * -1, weights) does.
+     *
+     * @param query the coordinates of the query point
+     * @param heap the collector for the nearest nodes
+     * @param weights the non-negative weight of each axis, or null to
+     *                weigh every axis by 1
+     */
+    public void getNearestNeighbors(double[] query, NeighborHeap heap,
+                                    double[] weights) {
+        if (weights == null)
+            weights = unitWeights;
+        else if (weights.length != DIMENSION)
+            throw new IllegalArgumentException();
+        else
+            for (double w : weights)
+                if (!(w >= 0.0) || Double.isInfinite(w))
+                    throw new IllegalArgumentException();
+        heap.reset();
+        if (!isEmpty())
+            search(query, heap, weights);
+        heap.sort();
+    }
+
+    /*
+     * Search the mapped tree without recursion, exactly as KDTree.search()
+     * does for an unlabelled tree, reading nodes through the buffer views.
+     */
+    private void search(double[] query, NeighborHeap heap,
+                        double[] weights) {
+        SearchStack stack = heap.stack;
+        stack.reset(DIMENSION);
+        double[] offsets = stack.current;
+
+        while (stack.top > 0) {
+            int entry = stack.pop();
+            double bound = stack.bounds[entry];
+            if (bound > heap.getBound())
+                continue;
+            int curr = stack.nodes[entry];
+            int axis = stack.axes[entry];
+
+            // descend to a leaf along the near side, deferring far sides
+            while (curr != NONE) {
+                heap.offer(curr, distanceSquared(query, curr, weights));
+
+                double gap = query[axis] - coords.get(curr * DIMENSION + axis);
+                int near = gap <= 0.0 ? left.get(curr) : right.get(curr);
+                int far = gap <= 0.0 ? right.get(curr) : left.get(curr);
+                int next = axis + 1 == DIMENSION ? 0 : axis + 1;
+
+                if (far != NONE) {
+                    double farBound = boxDistance(offsets, weights, axis,
+                            gap);
+                    if (farBound <= heap.getBound())
+                        stack.push(far, next, farBound, axis, gap);
+                }
+
+                curr = near;
+                axis = next;
+            }
+        }
+    }
+
+    /*
+     * Return the weighted squared distance from the query to the box whose
+     * offsets are those given, except gap along axis. The terms are summed
+     * in axis order and each is rounded like the matching term of
+     * distanceSquared(), so the result never exceeds the distance of a
+     * node inside the box, even one lying exactly on its boundary.
+     */
+    private static double boxDistance(double[] offsets, double[] weights,
+                                      int axis, double gap) {
+        double d = 0.0;
+        for (int a = 0; a < offsets.length; a++) {
+            double offset = a == axis ? gap : offsets[a];
+            d += weights[a] * offset * offset;
+        }
+        return d;
+    }
+
+    // weighted squared distance from query to the coordinates of node
+    private double distanceSquared(double[] query, int node,
+                                   double[] weights) {
+        double d = 0.0;
+        int offset = node * DIMENSION;
+        for (int a = 0; a < DIMENSION; a++) {
+            double diff = coords.get(offset + a) - query[a];
+            d += weights[a] * diff * diff;
+        }
+        return d;
+    }
+}
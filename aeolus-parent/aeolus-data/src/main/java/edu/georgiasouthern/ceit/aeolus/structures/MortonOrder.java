@@ -0,0 +1,82 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+import java.util.Arrays;
+
+/**
+ * Orders points along a Morton (Z-order) curve, so that points which are
+ * close in space tend to be close in the resulting order. Batch searches
+ * visit their queries in this order, which lets consecutive queries walk
+ * the same paths through a KDTree while those nodes are still cached.
+ *
+ * @author Jason Franklin
+ */
+class MortonOrder {
+
+    // total number of bits of a Morton code, shared among all axes
+    private static final int CODE_BITS = 30;
+
+    // Disallow instantiation of MortonOrder.
+    private MortonOrder() {}
+
+    /**
+     * Return a permutation of the positions of count points, listed in
+     * Morton order. Each point occupies dimension consecutive values of
+     * points, and each axis is quantized over the bounding box of all the
+     * points before its bits are interleaved.
+     *
+     * @param points the interleaved coordinates of the points
+     * @param count the number of points
+     * @param dimension the number of coordinates per point
+     * @return the positions of the points in Morton order
+     */
+    static int[] order(double[] points, int count, int dimension) {
+
+        int[] result = new int[count];
+        int bits = CODE_BITS / dimension;
+        if (bits == 0) {
+            for (int i = 0; i < count; i++)
+                result[i] = i;
+            return result;
+        }
+
+        // find the bounding box of the points
+        double[] min = new double[dimension];
+        double[] max = new double[dimension];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < count; i++)
+            for (int a = 0; a < dimension; a++) {
+                double x = points[i * dimension + a];
+                min[a] = Math.min(min[a], x);
+                max[a] = Math.max(max[a], x);
+            }
+
+        // map each axis of the box onto the cells 0 to 2^bits - 1
+        int cells = (1 << bits) - 1;
+        double[] scale = new double[dimension];
+        for (int a = 0; a < dimension; a++) {
+            double extent = max[a] - min[a];
+            scale[a] = extent > 0.0 ? cells / extent : 0.0;
+        }
+
+        // key each position by its code, leaving the position in the low
+        // 32 bits so that sorting the keys sorts the positions
+        long[] keys = new long[count];
+        int[] cell = new int[dimension];
+        for (int i = 0; i < count; i++) {
+            for (int a = 0; a < dimension; a++)
+                cell[a] = (int) ((points[i * dimension + a] - min[a]) *
+                        scale[a]);
+            long code = 0L;
+            for (int b = bits - 1; b >= 0; b--)
+                for (int a = 0; a < dimension; a++)
+                    code = (code << 1) | ((cell[a] >>> b) & 1);
+            keys[i] = (code << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        for (int i = 0; i < count; i++)
+            result[i] = (int) keys[i];
+        return result;
+    }
+}
@@ -31,17 +31,18 @@ public class NearestNeighborList<T extends Point> {
      *
      * @param node the KDTreeNode to be added to this NNL
      */
-    public void add(KDTreeNode<T> node) { 
-
-        // this first if block seems to be the source of an error in that it 
-        // allows for TOO MANY elements to be added to the NNL... thus we have longer
-        // than expected NNLs, this leads to unexpected results... think about this 
-        // carefully!!!
-        if (size() > 0)
-            if (node.euclideanDistance(ref) == getLast().euclideanDistance(ref))
-                list.addLast(node.getElement());
+    public void add(KDTreeNode<T> node) {
+        add(node.getElement());
+    }
 
-        list.add(node.getElement());
+    /**
+     * Add element to this NearestNeighborList, keeping the list sorted by
+     * distance from the reference point and no longer than its capacity.
+     *
+     * @param element the element to be added to this NNL
+     */
+    public void add(T element) {
+        list.add(element);
         final T final_ref = ref;
         Collections.sort(list, new Comparator<T>() {
             public int compare(T p1, T p2) { 
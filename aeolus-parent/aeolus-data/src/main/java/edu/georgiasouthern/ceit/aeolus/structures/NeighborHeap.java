@@ -0,0 +1,200 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+/**
+ * A fixed-capacity collector for the results of a k-nearest neighbor
+ * search, used in place of NearestNeighborList when searches must not
+ * allocate.
+ * <p>
+ * Candidates are kept in a binary max-heap over squared distances, stored
+ * as parallel arrays of node indices and squared distances, so the
+ * farthest candidate kept so far is always at the top and can be replaced
+ * in O(log k) time. A NeighborHeap is meant to be allocated once per
+ * thread and reused for every query that thread issues: a KDTree search
+ * resets the heap before filling it and sorts it once the search is
+ * complete, after which getIndex(0) is the nearest neighbor.
+ * <p>
+ * Candidates at equal distances are ordered by node index, so the k
+ * nearest candidates are always the first k of the k + 1 nearest, and
+ * searches for different k agree on which of several tied nodes to keep.
+ * <p>
+ * Instances are not thread-safe.
+ *
+ * @author Jason Franklin
+ */
+public class NeighborHeap {
+
+    // the maximum number of candidates kept by this heap
+    private final int capacity;
+
+    // the number of candidates currently kept
+    private int size;
+
+    // node index and squared distance of each candidate
+    private final int[] indices;
+    private final double[] distances;
+
+    // scratch space for the coordinates of the current query
+    double[] query;
+
+    // the explicit stack used by KDTree searches filling this heap
+    final SearchStack stack;
+
+    /**
+     * Allocate an empty NeighborHeap that keeps at most k candidates.
+     *
+     * @param k the capacity of this heap
+     * @throws IllegalArgumentException if k is less than 1
+     */
+    public NeighborHeap(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException();
+        capacity = k;
+        size = 0;
+        indices = new int[k];
+        distances = new double[k];
+        query = new double[0];
+        stack = new SearchStack();
+    }
+
+    /**
+     * Discard all candidates so that this heap can serve a new query.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Offer a candidate to this heap. The candidate is kept if the heap
+     * is not yet full or if it precedes the farthest candidate kept so
+     * far, which it then replaces.
+     *
+     * @param index the node index of the candidate
+     * @param distanceSquared the squared distance from the query to the
+     *                        candidate
+     * @return true if the candidate was kept
+     */
+    public boolean offer(int index, double distanceSquared) {
+        if (size < capacity) {
+            siftUp(size++, index, distanceSquared);
+            return true;
+        }
+        if (!precedes(index, distanceSquared, indices[0], distances[0]))
+            return false;
+        siftDown(0, size, index, distanceSquared);
+        return true;
+    }
+
+    /**
+     * Return the squared distance a candidate must not exceed to be kept
+     * by this heap, which is infinite until the heap is full.
+     *
+     * @return the current squared distance bound of this heap
+     */
+    public double getBound() {
+        return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * Sort the candidates kept by this heap by increasing distance. No
+     * candidates may be offered after this call until the heap is reset.
+     */
+    public void sort() {
+        for (int end = size - 1; end > 0; end--) {
+            int index = indices[end];
+            double distance = distances[end];
+            indices[end] = indices[0];
+            distances[end] = distances[0];
+            siftDown(0, end, index, distance);
+        }
+    }
+
+    /**
+     * Return the node index of the i-th candidate. Once the heap has been
+     * sorted, i = 0 is the nearest candidate.
+     *
+     * @param i the position of the candidate
+     * @return the node index of the candidate
+     */
+    public int getIndex(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException();
+        return indices[i];
+    }
+
+    /**
+     * Return the squared distance from the query to the i-th candidate.
+     *
+     * @param i the position of the candidate
+     * @return the squared distance to the candidate
+     */
+    public double getDistanceSquared(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException();
+        return distances[i];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // return the query scratch space, grown to hold dimension coordinates
+    double[] queryBuffer(int dimension) {
+        if (query.length < dimension)
+            query = new double[dimension];
+        return query;
+    }
+
+    // order candidates by distance, then by node index
+    private static boolean precedes(int i, double di, int j, double dj) {
+        return di < dj || (di == dj && i < j);
+    }
+
+    // move a candidate up from slot until its parent is farther
+    private void siftUp(int slot, int index, double distance) {
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (!precedes(indices[parent], distances[parent],
+                    index, distance))
+                break;
+            indices[slot] = indices[parent];
+            distances[slot] = distances[parent];
+            slot = parent;
+        }
+        indices[slot] = index;
+        distances[slot] = distance;
+    }
+
+    // move a candidate down from slot until both children are nearer
+    private void siftDown(int slot, int end, int index, double distance) {
+        int child;
+        while ((child = 2 * slot + 1) < end) {
+            if (child + 1 < end && precedes(indices[child],
+                    distances[child], indices[child + 1], distances[child + 1]))
+                child++;
+            if (!precedes(index, distance, indices[child], distances[child]))
+                break;
+            indices[slot] = indices[child];
+            distances[slot] = distances[child];
+            slot = child;
+        }
+        indices[slot] = index;
+        distances[slot] = distance;
+    }
+
+    @Override
+    public String toString() {
+        String result = "";
+        for (int i = 0; i < size; i++)
+            result += ("\t" + Math.sqrt(distances[i]) + "\t" +
+                    indices[i] + "\n");
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+import java.io.Serializable;
+
+/**
+ * The results of a batch of k-nearest neighbor searches, as returned by
+ * the batch search methods of KDTree.
+ * <p>
+ * Results are stored in flat arrays, k slots per query, in the order the
+ * queries were given, regardless of the order in which they were searched.
+ * The neighbors of each query are sorted by increasing distance, and
+ * distances are kept squared, exactly as a NeighborHeap holds them.
+ *
+ * @author Jason Franklin
+ */
+public class NeighborTable implements Serializable {
+
+    // the maximum number of neighbors kept per query
+    private final int k;
+
+    // the number of queries in this table
+    private final int count;
+
+    // node index and squared distance of each neighbor, k slots per query
+    private final int[] indices;
+    private final double[] distances;
+
+    // the number of neighbors actually found for each query
+    private final int[] sizes;
+
+    /**
+     * Allocate an empty NeighborTable for count queries of k neighbors.
+     *
+     * @param k the maximum number of neighbors per query
+     * @param count the number of queries
+     */
+    public NeighborTable(int k, int count) {
+        if (k < 1 || count < 0)
+            throw new IllegalArgumentException();
+        this.k = k;
+        this.count = count;
+        indices = new int[k * count];
+        distances = new double[k * count];
+        sizes = new int[count];
+    }
+
+    /**
+     * Copy the contents of a sorted heap into the row of this table that
+     * belongs to query.
+     *
+     * @param query the position of the query in this table
+     * @param heap the sorted neighbors of the query
+     */
+    public void set(int query, NeighborHeap heap) {
+        int n = Math.min(heap.size(), k);
+        int offset = query * k;
+        for (int i = 0; i < n; i++) {
+            indices[offset + i] = heap.getIndex(i);
+            distances[offset + i] = heap.getDistanceSquared(i);
+        }
+        sizes[query] = n;
+    }
+
+    /**
+     * Return the number of neighbors found for query, which is k unless
+     * the searched tree holds fewer than k elements.
+     *
+     * @param query the position of the query in this table
+     * @return the number of neighbors of the query
+     */
+    public int getNeighborCount(int query) {
+        return sizes[query];
+    }
+
+    /**
+     * Return the node index of the i-th nearest neighbor of query.
+     *
+     * @param query the position of the query in this table
+     * @param i the rank of the neighbor, starting from 0 for the nearest
+     * @return the node index of the neighbor
+     */
+    public int getIndex(int query, int i) {
+        if (i < 0 || i >= sizes[query])
+            throw new IndexOutOfBoundsException();
+        return indices[query * k + i];
+    }
+
+    /**
+     * Return the squared distance from query to its i-th nearest neighbor.
+     *
+     * @param query the position of the query in this table
+     * @param i the rank of the neighbor, starting from 0 for the nearest
+     * @return the squared distance to the neighbor
+     */
+    public double getDistanceSquared(int query, int i) {
+        if (i < 0 || i >= sizes[query])
+            throw new IndexOutOfBoundsException();
+        return distances[query * k + i];
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int size() {
+        return count;
+    }
+}
@@ -26,12 +26,17 @@ import java.util.List;
  */
 public class PMPoint implements Point, Serializable {
 
-    // parameter for scaling the time dimension for uniformity
-    private static final double TIME_SCALE = 0.1;
+    /**
+     * The factor applied to the day of the year to give the scaledTime of
+     * every PMPoint. A search with time scale c instead weighs the time
+     * axis by (c / TIME_SCALE)<sup>2</sup>; see KDTree.
+     */
+    public static final double TIME_SCALE = 0.1;
 
-    // convenience constant for calculating scaledTime
-    private static final int[] DAYS = { 31, 28, 31, 30, 31, 30, 
-                                        31, 31, 30, 31, 30, 31 };
+    // days of 2009 before the first day of each month, for calculating
+    // scaledTime without a loop per record
+    private static final int[] FIRST_DAYS = { 0, 31, 59, 90, 120, 151,
+                                              181, 212, 243, 273, 304, 334 };
 
     // dimension of this PMPoint
     private int dimension;
@@ -70,10 +75,8 @@ public class PMPoint implements Point, Serializable {
         p.latitude = Double.parseDouble(fields[5]);
 
         // set scaledTime
-        p.scaledTime = Double.parseDouble(fields[3]);
-        for (int i = 0; i < Integer.parseInt(fields[2]) - 1; i++) {
-            p.scaledTime += DAYS[i];
-        }
+        p.scaledTime = Double.parseDouble(fields[3]) +
+                FIRST_DAYS[Integer.parseInt(fields[2]) - 1];
         p.scaledTime *= TIME_SCALE;
 
         // set pmValue
@@ -123,6 +126,34 @@ public class PMPoint implements Point, Serializable {
         return p;
     }
 
+    /**
+     * A method to restore a PMPoint from the values of its tuple, e.g.
+     * those written by a serializer that packs points into primitive
+     * arrays.
+     *
+     * @param longitude the longitude of the point
+     * @param latitude the latitude of the point
+     * @param scaledTime the scaled time of the point
+     * @param pmValue the PM<sub>2.5</sub> measurement, or -1.0 for a query
+     *                point
+     * @return a PMPoint object with the given tuple
+     */
+    public static PMPoint valueOf(double longitude, double latitude,
+                                  double scaledTime, double pmValue) {
+        PMPoint p = new PMPoint();
+        p.dimension = 3;
+        p.longitude = longitude;
+        p.latitude = latitude;
+        p.scaledTime = scaledTime;
+        p.pmValue = pmValue;
+        return p;
+    }
+
+    // the day of the year of a date in 2009, 1 for January 1st
+    static int dayOfYear(int month, int day) {
+        return FIRST_DAYS[month - 1] + day;
+    }
+
     /**
      * Return the value at index from the conceptual tuple of 
      * data exposed by this PMPoint. 
@@ -176,12 +207,15 @@ public class PMPoint implements Point, Serializable {
     public double euclideanDistance(Point p) throws IllegalArgumentException {
         if (!(p instanceof PMPoint))
             throw new IllegalArgumentException();
-        double d = 0.0;
-        d += Math.pow(get(0) - p.get(0), 2);
-        d += Math.pow(get(1) - p.get(1), 2);
-        d += Math.pow(get(2) - p.get(2), 2);
-        d = Math.sqrt(d);
-        return d;
+        return Math.sqrt(distanceSquared(p));
+    }
+
+    // the squared Euclidean distance from this to p
+    private double distanceSquared(Point p) {
+        double dx = get(0) - p.get(0);
+        double dy = get(1) - p.get(1);
+        double dt = get(2) - p.get(2);
+        return dx * dx + dy * dy + dt * dt;
     }
 
     /**
@@ -195,42 +229,45 @@ public class PMPoint implements Point, Serializable {
      *          in the interpolation process
      */
     public void setEstimate(NearestNeighborList<PMPoint> pointList, double p) {
-
-        // get list to use Iterator feature, may be replaced later!
-        List<PMPoint> pl = pointList.getList();
-
-        // calculate sum_d over NNL, might be an error with generics...
-        double sum_d = 0.0;
-        for (PMPoint pt : pl)
-            sum_d += Math.pow(1.0 / euclideanDistance(pt), p);
-
-        // estimate this.pmValue
-        pmValue = 0.0;
-        for (PMPoint pt : pl) {
-            double lambda = Math.pow(1.0 / euclideanDistance(pt), p) / sum_d;
-            pmValue += lambda * pt.get(3);
-        }
+        pmValue = getEstimate(pointList, p);
     }
 
-    // convenience method for now
+    // convenience method, weights each neighbor once with an IdwKernel
     public double getEstimate(NearestNeighborList<PMPoint> pointList, double p) {
-
-        // get list to use Iterator feature, may be replaced later!
         List<PMPoint> pl = pointList.getList();
+        double[] distances = new double[pl.size()];
+        double[] values = new double[pl.size()];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = distanceSquared(pl.get(i));
+            values[i] = pl.get(i).get(3);
+        }
+        return IdwKernel.estimate(p, distances, values, distances.length);
+    }
 
-        // calculate sum_d over NNL, might be an error with generics...
-        double sum_d = 0.0;
-        for (PMPoint pt : pl)
-            sum_d += Math.pow(1.0 / euclideanDistance(pt), p);
+    /**
+     * Set the measurement value for this PMPoint from the nearest
+     * neighbors that a search of tree collected in heap. Unlike the
+     * NearestNeighborList version, distances are taken from the squared
+     * distances already held by heap, so no distance is recomputed.
+     *
+     * @param tree the KDTree that was searched to fill heap
+     * @param heap the sorted nearest neighbors of this PMPoint in tree
+     * @param p the exponent that influences the weight of nearest neighbors
+     *          in the interpolation process
+     */
+    public void setEstimate(KDTree<PMPoint> tree, NeighborHeap heap, double p) {
+        pmValue = getEstimate(tree, heap, p);
+    }
 
-        // estimate this.pmValue
-        double result = 0.0;
-        for (PMPoint pt : pl) {
-            double lambda = Math.pow(1.0 / euclideanDistance(pt), p) / sum_d;
-            result += lambda * pt.get(3);
+    // convenience method, mirrors getEstimate(NearestNeighborList, double)
+    public double getEstimate(KDTree<PMPoint> tree, NeighborHeap heap, double p) {
+        double[] distances = new double[heap.size()];
+        double[] values = new double[heap.size()];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = heap.getDistanceSquared(i);
+            values[i] = tree.getValue(heap.getIndex(i));
         }
-
-        return result;
+        return IdwKernel.estimate(p, distances, values, distances.length);
     }
 
     @Override
@@ -0,0 +1,227 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A partition of measurements of a PointStore into k folds, kept as one
+ * array of handles ordered fold by fold and the offset of each fold in
+ * that array. Fold i holds the handles at positions offsets[i] through
+ * offsets[i + 1] - 1, so a fold or a training set is a range of int
+ * positions rather than a copied array of points.
+ *
+ * @author Jason Franklin
+ */
+public class Partition implements Serializable {
+
+    private final PointStore store;
+
+    // the handles of every fold, fold by fold
+    private final int[] order;
+
+    // the position in order of the first handle of each fold, and the
+    // number of handles as the last element
+    private final int[] offsets;
+
+    /**
+     * Allocate a Partition of the measurements of store with the given
+     * handles in each fold. The arrays are copied.
+     *
+     * @param store the store holding every measurement
+     * @param order the handles of every fold, fold by fold
+     * @param offsets the position in order of the first handle of each
+     *                fold, followed by order.length
+     * @throws IllegalArgumentException if offsets does not start at 0, end
+     *         at order.length and never decrease, or there are no folds
+     * @throws IndexOutOfBoundsException if a handle is not in store
+     */
+    public Partition(PointStore store, int[] order, int[] offsets) {
+        if (offsets.length < 2 || offsets[0] != 0 ||
+                offsets[offsets.length - 1] != order.length)
+            throw new IllegalArgumentException();
+        for (int i = 1; i < offsets.length; i++)
+            if (offsets[i] < offsets[i - 1])
+                throw new IllegalArgumentException();
+        for (int handle : order)
+            if (handle < 0 || handle >= store.size())
+                throw new IndexOutOfBoundsException();
+        this.store = store;
+        this.order = order.clone();
+        this.offsets = offsets.clone();
+    }
+
+    /**
+     * Return a Partition holding copies of the rows of partition, whose
+     * fold i holds the points of partition[i] in order.
+     *
+     * @param partition the partition of points into folds
+     * @return an equivalent Partition over a new ColumnarPointStore
+     */
+    public static Partition of(PMPoint[][] partition) {
+        List<PMPoint> points = new ArrayList<>();
+        int[] offsets = new int[partition.length + 1];
+        for (int i = 0; i < partition.length; i++) {
+            points.addAll(Arrays.asList(partition[i]));
+            offsets[i + 1] = points.size();
+        }
+        int[] order = identity(points.size());
+        ColumnarPointStore store = ColumnarPointStore.of(points);
+        return new Partition(store, order, offsets);
+    }
+
+    /**
+     * Return a random partition of every measurement of store into k
+     * folds, by a Fisher-Yates shuffle of its handles with a Random seeded
+     * with seed. The first size % k folds hold one more measurement than
+     * the others, and the same seed always gives the same partition.
+     *
+     * @param store the store holding the measurements
+     * @param k the number of folds
+     * @param seed the seed of the shuffle
+     * @return a partition of all measurements of store into k folds
+     * @throws IllegalArgumentException if k is less than 1
+     */
+    public static Partition random(PointStore store, int k, long seed) {
+        int[] order = identity(store.size());
+        Random random = new Random(seed);
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        return new Partition(store, order, offsets(order.length, k));
+    }
+
+    /**
+     * Return the partition of every measurement of store into k folds of
+     * consecutive handles, e.g. for a store read from a file that lists
+     * its folds one after another. The first size % k folds hold one more
+     * measurement than the others.
+     *
+     * @param store the store holding the measurements
+     * @param k the number of folds
+     * @return a partition of all measurements of store into k folds
+     * @throws IllegalArgumentException if k is less than 1
+     */
+    public static Partition contiguous(PointStore store, int k) {
+        int[] order = identity(store.size());
+        return new Partition(store, order, offsets(order.length, k));
+    }
+
+    // the handles 0 through n - 1, in order
+    private static int[] identity(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        return order;
+    }
+
+    // the offsets of k folds of n handles, the first n % k one larger
+    private static int[] offsets(int n, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException();
+        int[] offsets = new int[k + 1];
+        for (int i = 0; i < k; i++)
+            offsets[i + 1] = offsets[i] + n / k + (i < n % k ? 1 : 0);
+        return offsets;
+    }
+
+    public PointStore getStore() {
+        return store;
+    }
+
+    public int getFoldCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Return the number of measurements in all folds.
+     *
+     * @return the size of this partition
+     */
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * Return the number of measurements in fold i.
+     *
+     * @param i the index of the fold
+     * @return the size of fold i
+     */
+    public int getFoldSize(int i) {
+        checkFold(i);
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * Return the handle of the m-th measurement of fold i.
+     *
+     * @param i the index of the fold
+     * @param m the position of the measurement in fold i
+     * @return the handle of that measurement in the store
+     */
+    public int getHandle(int i, int m) {
+        if (m < 0 || m >= getFoldSize(i))
+            throw new IndexOutOfBoundsException();
+        return order[offsets[i] + m];
+    }
+
+    /**
+     * Return the handles of fold i, the validation set of fold i.
+     *
+     * @param i the index of the fold
+     * @return a new array of the handles of fold i
+     */
+    public int[] getFold(int i) {
+        checkFold(i);
+        return Arrays.copyOfRange(order, offsets[i], offsets[i + 1]);
+    }
+
+    /**
+     * Return the handles of every fold but fold i, the training set of
+     * fold i.
+     *
+     * @param i the index of the fold
+     * @return a new array of the handles outside fold i
+     */
+    public int[] getTrainingSet(int i) {
+        checkFold(i);
+        int[] result = new int[order.length - getFoldSize(i)];
+        System.arraycopy(order, 0, result, 0, offsets[i]);
+        System.arraycopy(order, offsets[i + 1], result, offsets[i],
+                order.length - offsets[i + 1]);
+        return result;
+    }
+
+    /**
+     * Return the handles of every fold, fold by fold.
+     *
+     * @return a new array of all handles of this partition
+     */
+    public int[] getHandles() {
+        return order.clone();
+    }
+
+    /**
+     * Return the fold of each handle of getHandles(), e.g. the labels of
+     * a fold-labelled KDTree over this partition.
+     *
+     * @return a new array of the fold of every position
+     */
+    public int[] getLabels() {
+        int[] labels = new int[order.length];
+        for (int i = 0; i < getFoldCount(); i++)
+            Arrays.fill(labels, offsets[i], offsets[i + 1], i);
+        return labels;
+    }
+
+    private void checkFold(int i) {
+        if (i < 0 || i >= getFoldCount())
+            throw new IndexOutOfBoundsException();
+    }
+}
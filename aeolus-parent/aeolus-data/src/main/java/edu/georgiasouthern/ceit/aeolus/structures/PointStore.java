@@ -0,0 +1,95 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+/**
+ * A read-only collection of measurements, addressed by int handles rather
+ * than by object references. The measurement with handle h, for h in
+ * [0, size()), has the tuple of a PMPoint,
+ * <blockquote>
+ * (longitude, latitude, scaled_time, pm_measurement),
+ * </blockquote>
+ * as well as the station it was taken at and its day of the year. A store
+ * may also hold further variables measured at the same station and day,
+ * such as ozone or temperature; variable 0 is always the
+ * PM<sub>2.5</sub> measurement of the tuple, and NaN marks a value that
+ * was not measured.
+ * <p>
+ * Sets of measurements, such as the folds of a Partition or the nodes of
+ * a KDTree built with KDTree.fromStore(), are then int arrays of handles
+ * into one shared store, and selecting a subset copies no measurement.
+ *
+ * @author Jason Franklin
+ */
+public interface PointStore {
+
+    int size();
+
+    /**
+     * Return the value at index from the tuple of the measurement with
+     * the given handle, as PMPoint.get() does.
+     *
+     * @param handle the handle of the measurement
+     * @param index the index of the value, in {0, 1, 2, 3}
+     * @return the value at index in that measurement's tuple
+     */
+    double get(int handle, int index);
+
+    double getLongitude(int handle);
+
+    double getLatitude(int handle);
+
+    double getScaledTime(int handle);
+
+    double getValue(int handle);
+
+    /**
+     * Return the number of variables of each measurement, 1 for a store
+     * of PM<sub>2.5</sub> measurements only.
+     *
+     * @return the number of variables of this store
+     */
+    default int getVariableCount() {
+        return 1;
+    }
+
+    /**
+     * Return the value of a variable of a measurement, or NaN if it was
+     * not measured. Variable 0 is getValue(handle).
+     *
+     * @param handle the handle of the measurement
+     * @param variable the variable, in [0, getVariableCount())
+     * @return the value of that variable
+     */
+    default double getValue(int handle, int variable) {
+        if (variable != 0)
+            throw new IndexOutOfBoundsException();
+        return getValue(handle);
+    }
+
+    /**
+     * Return the station of a measurement, or -1 if it is not known.
+     *
+     * @param handle the handle of the measurement
+     * @return the station id of that measurement
+     */
+    int getStation(int handle);
+
+    /**
+     * Return the day of the year (1 for January 1st) of a measurement.
+     *
+     * @param handle the handle of the measurement
+     * @return the day of that measurement
+     */
+    int getDay(int handle);
+
+    /**
+     * Return a new PMPoint with the tuple of a measurement, for code that
+     * still works with Point objects.
+     *
+     * @param handle the handle of the measurement
+     * @return a PMPoint equal to that measurement
+     */
+    default PMPoint getPoint(int handle) {
+        return PMPoint.valueOf(getLongitude(handle), getLatitude(handle),
+                getScaledTime(handle), getValue(handle));
+    }
+}
@@ -0,0 +1,225 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The query points of a set of sites, such as the centroids of counties
+ * or census block groups, on every day of a range. Each site record
+ * <blockquote>
+ * id,x,y
+ * </blockquote>
+ * is parsed once and kept as primitive columns; its queries are the
+ * tuples (x, y, scaled_time) of the days of the range, which are only
+ * generated when asked for, one at a time or as blocks of coordinates
+ * for a batch search of a KDTree. The memory of a QuerySource thus grows
+ * with its sites, not with its sites times its days.
+ * <p>
+ * Query q is of site q / getDayCount() on day getFirstDay() +
+ * q % getDayCount(), so the queries of a site are consecutive.
+ *
+ * @author Jason Franklin
+ */
+public class QuerySource implements Serializable {
+
+    // number of sites allocated for an empty source
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the range of days of the queries of every site
+    private final int firstDay;
+    private final int lastDay;
+
+    private int size;
+
+    // the fields of every site
+    private String[] ids;
+    private double[] longitudes;
+    private double[] latitudes;
+
+    /**
+     * Allocate an empty QuerySource for the days in [firstDay, lastDay].
+     *
+     * @param firstDay the first day of the queries, 1 for January 1st
+     * @param lastDay the last day of the queries
+     * @throws IllegalArgumentException if firstDay is less than 1 or
+     *         greater than lastDay
+     */
+    public QuerySource(int firstDay, int lastDay) {
+        if (firstDay < 1 || lastDay < firstDay)
+            throw new IllegalArgumentException();
+        this.firstDay = firstDay;
+        this.lastDay = lastDay;
+        size = 0;
+        ids = new String[INITIAL_CAPACITY];
+        longitudes = new double[INITIAL_CAPACITY];
+        latitudes = new double[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Return a QuerySource of the sites of every record of records, for
+     * the days in [firstDay, lastDay]. A header line is skipped.
+     *
+     * @param records the site records, e.g. the lines of "county_xy.csv"
+     * @param firstDay the first day of the queries, 1 for January 1st
+     * @param lastDay the last day of the queries
+     * @return a QuerySource of those sites and days
+     */
+    public static QuerySource of(Iterator<String> records, int firstDay,
+                                 int lastDay) {
+        QuerySource source = new QuerySource(firstDay, lastDay);
+        while (records.hasNext())
+            source.addRecord(records.next());
+        return source;
+    }
+
+    /**
+     * Parse a site record and add its site, unless it is a header line.
+     *
+     * @param record the site record, "id,x,y"
+     * @return true if a site was added
+     */
+    public boolean addRecord(String record) {
+        if (record.contains("id,x,y"))
+            return false;
+        String[] fields = record.split(",");
+        addSite(fields[0], Double.parseDouble(fields[1]),
+                Double.parseDouble(fields[2]));
+        return true;
+    }
+
+    /**
+     * Add a site.
+     *
+     * @param id the id of the site
+     * @param longitude the longitude of the site
+     * @param latitude the latitude of the site
+     * @return the index of the new site
+     */
+    public int addSite(String id, double longitude, double latitude) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+        }
+        ids[size] = id;
+        longitudes[size] = longitude;
+        latitudes[size] = latitude;
+        return size++;
+    }
+
+    public int getSiteCount() {
+        return size;
+    }
+
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    public int getLastDay() {
+        return lastDay;
+    }
+
+    public int getDayCount() {
+        return lastDay - firstDay + 1;
+    }
+
+    /**
+     * Return the number of queries, one per site and day.
+     *
+     * @return the number of queries of this source
+     */
+    public long size() {
+        return (long) size * getDayCount();
+    }
+
+    public String getSiteId(int site) {
+        checkSite(site);
+        return ids[site];
+    }
+
+    public double getLongitude(int site) {
+        checkSite(site);
+        return longitudes[site];
+    }
+
+    public double getLatitude(int site) {
+        checkSite(site);
+        return latitudes[site];
+    }
+
+    /**
+     * Return the site of a query.
+     *
+     * @param query the index of the query
+     * @return the index of its site
+     */
+    public int getSite(long query) {
+        checkQuery(query);
+        return (int) (query / getDayCount());
+    }
+
+    /**
+     * Return the day of a query.
+     *
+     * @param query the index of the query
+     * @return its day of the year, 1 for January 1st
+     */
+    public int getDay(long query) {
+        checkQuery(query);
+        return firstDay + (int) (query % getDayCount());
+    }
+
+    /**
+     * Return a new PMPoint equal to the PMPoint.queryPoint() of the record
+     * of a query's site and the query's day.
+     *
+     * @param query the index of the query
+     * @return a query point with the pmValue -1.0
+     */
+    public PMPoint getPoint(long query) {
+        int site = getSite(query);
+        return PMPoint.valueOf(longitudes[site], latitudes[site],
+                PMPoint.TIME_SCALE * getDay(query), -1.0);
+    }
+
+    /**
+     * Fill coordinates with the (longitude, latitude, scaled_time) tuples
+     * of consecutive queries from query from, as many as it holds or as
+     * are left. The filled part of coordinates is a block of queries for
+     * KDTree.getNearestNeighbors(int, double[], ForkJoinPool).
+     *
+     * @param from the index of the first query
+     * @param coordinates the array to fill, three values per query
+     * @return the number of queries filled
+     */
+    public int fill(long from, double[] coordinates) {
+        if (from < 0 || from > size())
+            throw new IndexOutOfBoundsException();
+        int count = (int) Math.min(coordinates.length / 3, size() - from);
+        int days = getDayCount();
+        int site = (int) (from / days);
+        int day = firstDay + (int) (from % days);
+        for (int j = 0; j < count; j++) {
+            coordinates[j * 3] = longitudes[site];
+            coordinates[j * 3 + 1] = latitudes[site];
+            coordinates[j * 3 + 2] = PMPoint.TIME_SCALE * day;
+            if (++day > lastDay) {
+                day = firstDay;
+                site++;
+            }
+        }
+        return count;
+    }
+
+    private void checkSite(int site) {
+        if (site < 0 || site >= size)
+            throw new IndexOutOfBoundsException();
+    }
+
+    private void checkQuery(long query) {
+        if (query < 0 || query >= size())
+            throw new IndexOutOfBoundsException();
+    }
+}
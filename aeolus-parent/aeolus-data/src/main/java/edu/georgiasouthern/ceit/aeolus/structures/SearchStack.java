@@ -0,0 +1,97 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+import java.util.Arrays;
+
+/**
+ * The explicit stack used by the iterative KDTree search. Each entry is a
+ * subtree still to be visited, together with the squared distance from
+ * the query to the subtree's bounding box and the per-axis offsets that
+ * make up that distance.
+ * <p>
+ * A SearchStack belongs to a NeighborHeap, so it is reused by every
+ * search that heap serves and only grows when a deeper tree is searched.
+ *
+ * @author Jason Franklin
+ */
+class SearchStack {
+
+    // number of entries allocated for a new stack
+    private static final int INITIAL_DEPTH = 64;
+
+    // dimension of the offset vectors currently held
+    private int dimension;
+
+    // number of entries on the stack
+    int top;
+
+    // root node, splitting axis and bounding box distance of each entry
+    int[] nodes;
+    int[] axes;
+    double[] bounds;
+
+    // offset vector of each entry, dimension values per entry
+    double[] offsets;
+
+    // scratch space for the offset vector of the subtree being visited
+    double[] current;
+
+    SearchStack() {
+        dimension = 0;
+        top = 0;
+        nodes = new int[INITIAL_DEPTH];
+        axes = new int[INITIAL_DEPTH];
+        bounds = new double[INITIAL_DEPTH];
+        offsets = new double[0];
+        current = new double[0];
+    }
+
+    /*
+     * Empty this stack for a search in a tree of the given dimension, with
+     * the root of that tree as its only entry.
+     */
+    void reset(int dimension) {
+        if (this.dimension != dimension) {
+            this.dimension = dimension;
+            offsets = new double[nodes.length * dimension];
+            current = new double[dimension];
+        }
+        nodes[0] = 0;
+        axes[0] = 0;
+        bounds[0] = 0.0;
+        Arrays.fill(offsets, 0, dimension, 0.0);
+        top = 1;
+    }
+
+    /*
+     * Push the subtree rooted at node, whose bounding box differs from that
+     * of the subtree being visited only in its offset along axis.
+     */
+    void push(int node, int nextAxis, double bound, int axis, double offset) {
+        if (top == nodes.length)
+            grow();
+        nodes[top] = node;
+        axes[top] = nextAxis;
+        bounds[top] = bound;
+        System.arraycopy(current, 0, offsets, top * dimension, dimension);
+        offsets[top * dimension + axis] = offset;
+        top++;
+    }
+
+    /*
+     * Pop the top entry, copying its offset vector into current. Returns
+     * the index of the popped entry.
+     */
+    int pop() {
+        top--;
+        System.arraycopy(offsets, top * dimension, current, 0, dimension);
+        return top;
+    }
+
+    private void grow() {
+        int depth = nodes.length * 2;
+        nodes = Arrays.copyOf(nodes, depth);
+        axes = Arrays.copyOf(axes, depth);
+        bounds = Arrays.copyOf(bounds, depth);
+        offsets = Arrays.copyOf(offsets, depth * dimension);
+    }
+}
@@ -0,0 +1,312 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A PointStore of daily readings at a fixed set of stations, encoded per
+ * station rather than per reading. Each station is a row holding its id
+ * and coordinates once, a bitmap of the days of the year it has a reading
+ * for, and the range of its readings in a single array of values ordered
+ * by station, then by day. A reading thus costs one double, and a station
+ * a few dozen bytes, so the store shrinks with the number of days per
+ * station compared to a ColumnarPointStore.
+ * <p>
+ * The handle of a reading is its position in the value array, so the
+ * readings of a station have consecutive handles. A station that reports
+ * two readings on one day, or that moves, is split into several rows
+ * with the same id; every reading of the source store is kept.
+ *
+ * @author Jason Franklin
+ */
+public class StationStore implements PointStore, Serializable {
+
+    // days of the year are in [1, DAYS_PER_YEAR]
+    private static final int DAYS_PER_YEAR = 366;
+
+    // words of the presence bitmap of a station
+    private static final int WORDS = (DAYS_PER_YEAR + 63) / 64;
+
+    // the id and coordinates of every station
+    private final int[] ids;
+    private final double[] longitudes;
+    private final double[] latitudes;
+
+    // WORDS words per station, bit day - 1 set for each day with a reading
+    private final long[] presence;
+
+    // the handle of the first reading of each station, then size()
+    private final int[] firsts;
+
+    // the value of every reading, by station and then by day
+    private final double[] values;
+
+    private StationStore(int[] ids, double[] longitudes, double[] latitudes,
+                         long[] presence, int[] firsts, double[] values) {
+        this.ids = ids;
+        this.longitudes = longitudes;
+        this.latitudes = latitudes;
+        this.presence = presence;
+        this.firsts = firsts;
+        this.values = values;
+    }
+
+    /**
+     * Return a StationStore holding every measurement of store, grouped by
+     * the station and coordinates of each measurement.
+     *
+     * @param store the store to be encoded
+     * @return a StationStore with the same measurements as store
+     * @throws IllegalArgumentException if a day of store is not in
+     *         [1, 366]
+     */
+    public static StationStore of(PointStore store) {
+
+        // the rows of each station id, in the order they are first seen
+        Map<Integer, List<Row>> byId = new HashMap<>();
+        List<Row> rows = new ArrayList<>();
+        for (int h = 0; h < store.size(); h++) {
+            int day = store.getDay(h);
+            if (day < 1 || day > DAYS_PER_YEAR)
+                throw new IllegalArgumentException();
+            double x = store.getLongitude(h);
+            double y = store.getLatitude(h);
+
+            // the first row of this station at (x, y) free on this day
+            List<Row> candidates =
+                    byId.computeIfAbsent(store.getStation(h),
+                            id -> new ArrayList<>());
+            Row row = null;
+            for (Row r : candidates)
+                if (r.longitude == x && r.latitude == y &&
+                        !r.has(day - 1)) {
+                    row = r;
+                    break;
+                }
+            if (row == null) {
+                row = new Row(store.getStation(h), x, y);
+                candidates.add(row);
+                rows.add(row);
+            }
+            row.values[day - 1] = store.getValue(h);
+            row.present[(day - 1) / 64] |= 1L << (day - 1);
+        }
+
+        int n = rows.size();
+        int[] ids = new int[n];
+        double[] longitudes = new double[n];
+        double[] latitudes = new double[n];
+        long[] presence = new long[n * WORDS];
+        int[] firsts = new int[n + 1];
+        double[] values = new double[store.size()];
+        for (int s = 0; s < n; s++) {
+            Row row = rows.get(s);
+            ids[s] = row.id;
+            longitudes[s] = row.longitude;
+            latitudes[s] = row.latitude;
+            System.arraycopy(row.present, 0, presence, s * WORDS, WORDS);
+            int handle = firsts[s];
+            for (int d = 0; d < DAYS_PER_YEAR; d++)
+                if (row.has(d))
+                    values[handle++] = row.values[d];
+            firsts[s + 1] = handle;
+        }
+        return new StationStore(ids, longitudes, latitudes, presence,
+                firsts, values);
+    }
+
+    /*
+     * A station being collected by of(), with a slot for every day and a
+     * bitmap of the slots in use.
+     */
+    private static class Row {
+
+        final int id;
+        final double longitude, latitude;
+        final double[] values = new double[DAYS_PER_YEAR];
+        final long[] present = new long[WORDS];
+
+        Row(int id, double longitude, double latitude) {
+            this.id = id;
+            this.longitude = longitude;
+            this.latitude = latitude;
+        }
+
+        // whether the slot of day d + 1 is in use
+        boolean has(int d) {
+            return (present[d / 64] & 1L << d) != 0;
+        }
+    }
+
+    public int getStationCount() {
+        return ids.length;
+    }
+
+    /**
+     * Return the id of station s, as given by the source store. Several
+     * stations may share an id.
+     *
+     * @param s the index of the station
+     * @return the id of that station
+     */
+    public int getStationId(int s) {
+        checkStation(s);
+        return ids[s];
+    }
+
+    public double getStationLongitude(int s) {
+        checkStation(s);
+        return longitudes[s];
+    }
+
+    public double getStationLatitude(int s) {
+        checkStation(s);
+        return latitudes[s];
+    }
+
+    /**
+     * Return the number of readings of station s.
+     *
+     * @param s the index of the station
+     * @return the number of days station s has a reading for
+     */
+    public int getReadingCount(int s) {
+        checkStation(s);
+        return firsts[s + 1] - firsts[s];
+    }
+
+    /**
+     * Return the handle of the reading of station s on a day, or -1 if
+     * it has none. The bitmap of the station is tested, and the handle
+     * found by counting the days before it.
+     *
+     * @param s the index of the station
+     * @param day the day of the year, 1 for January 1st
+     * @return the handle of that reading, or -1
+     */
+    public int getHandle(int s, int day) {
+        checkStation(s);
+        if (day < 1 || day > DAYS_PER_YEAR)
+            return -1;
+        int d = day - 1;
+        int base = s * WORDS;
+        if ((presence[base + d / 64] & 1L << d) == 0)
+            return -1;
+        int rank = Long.bitCount(presence[base + d / 64] & ((1L << d) - 1));
+        for (int w = 0; w < d / 64; w++)
+            rank += Long.bitCount(presence[base + w]);
+        return firsts[s] + rank;
+    }
+
+    /**
+     * Return the reading of station s on a day, or NaN if it has none.
+     *
+     * @param s the index of the station
+     * @param day the day of the year, 1 for January 1st
+     * @return the value of that reading, or NaN
+     */
+    public double getReading(int s, int day) {
+        int handle = getHandle(s, day);
+        return handle < 0 ? Double.NaN : values[handle];
+    }
+
+    /**
+     * Return the station of the reading with the given handle, as an
+     * index into the stations of this store.
+     *
+     * @param handle the handle of the reading
+     * @return the index of its station
+     */
+    public int getStationIndex(int handle) {
+        if (handle < 0 || handle >= values.length)
+            throw new IndexOutOfBoundsException();
+
+        // the last station whose first handle is at most handle
+        int lo = 0;
+        int hi = ids.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firsts[mid] <= handle)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public double get(int handle, int index) {
+        switch (index) {
+            case 0: return getLongitude(handle);
+            case 1: return getLatitude(handle);
+            case 2: return getScaledTime(handle);
+            case 3: return getValue(handle);
+            default: throw new IndexOutOfBoundsException();
+        }
+    }
+
+    @Override
+    public double getLongitude(int handle) {
+        return longitudes[getStationIndex(handle)];
+    }
+
+    @Override
+    public double getLatitude(int handle) {
+        return latitudes[getStationIndex(handle)];
+    }
+
+    @Override
+    public double getScaledTime(int handle) {
+        return getDay(handle) * PMPoint.TIME_SCALE;
+    }
+
+    @Override
+    public double getValue(int handle) {
+        if (handle < 0 || handle >= values.length)
+            throw new IndexOutOfBoundsException();
+        return values[handle];
+    }
+
+    @Override
+    public int getStation(int handle) {
+        return ids[getStationIndex(handle)];
+    }
+
+    /**
+     * Return the day of a reading, by selecting the set bit of its
+     * station's bitmap whose rank is the offset of the reading among the
+     * readings of the station.
+     *
+     * @param handle the handle of the reading
+     * @return the day of that reading
+     */
+    @Override
+    public int getDay(int handle) {
+        int s = getStationIndex(handle);
+        int rank = handle - firsts[s];
+        for (int w = 0; w < WORDS; w++) {
+            long word = presence[s * WORDS + w];
+            int count = Long.bitCount(word);
+            if (rank < count) {
+                for (int r = 0; r < rank; r++)
+                    word &= word - 1;
+                return w * 64 + Long.numberOfTrailingZeros(word) + 1;
+            }
+            rank -= count;
+        }
+        throw new IllegalStateException();
+    }
+
+    private void checkStation(int s) {
+        if (s < 0 || s >= ids.length)
+            throw new IndexOutOfBoundsException();
+    }
+}
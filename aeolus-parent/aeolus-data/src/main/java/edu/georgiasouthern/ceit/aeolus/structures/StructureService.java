@@ -2,10 +2,13 @@ package edu.georgiasouthern.ceit.aeolus.structures;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A service class that provides methods which return structured
@@ -17,20 +20,51 @@ public class StructureService {
 
     /**
      * Returns a KDTree of PMPoint objects using the classpath
-     * resource "pm25_2009_measured.csv".
+     * resource "pm25_2009_measured.csv". The tree is built over the
+     * ColumnarPointStore of getDataStore(), so it holds no PMPoint
+     * objects, only primitive arrays, and is compact to serialize.
      *
      * @return a KDTree containing all records from "pm25_2009_measured.csv"
      */
     public KDTree<PMPoint> getDataTree() throws IOException {
 
-        // Allocate result
-        KDTree<PMPoint> result = new KDTree<>(3);
+        // Read the records and name each by its handle
+        ColumnarPointStore store = this.getDataStore();
+        int[] handles = new int[store.size()];
+        for (int h = 0; h < handles.length; h++)
+            handles[h] = h;
 
-        // Build the tree
-        result.build(this.getDataList());
+        // Build the tree over the store
+        return KDTree.fromStore(store, handles, null,
+                ForkJoinPool.commonPool());
+    }
 
-        // Return the result KDTree, as required
-        return result;
+    /**
+     * Writes the KDTree returned by getDataTree() to an index file at
+     * path, which MappedKDTree.open() maps for searching.
+     *
+     * @param path the location of the index file
+     * @throws IOException if the data or the file cannot be accessed
+     */
+    public void writeDataIndex(Path path) throws IOException {
+        MappedKDTree.write(this.getDataTree(), path);
+    }
+
+    /**
+     * Returns the KDTree of all PMPoint records mapped from the index
+     * file at path, first writing the index with writeDataIndex() if no
+     * file exists there. Later processes on the same host skip parsing
+     * and building the tree, and share the pages of the index.
+     *
+     * @param path the location of the index file
+     * @return a MappedKDTree containing all records from
+     *         "pm25_2009_measured.csv"
+     * @throws IOException if the data or the file cannot be accessed
+     */
+    public MappedKDTree getMappedDataTree(Path path) throws IOException {
+        if (!Files.exists(path))
+            writeDataIndex(path);
+        return MappedKDTree.open(path);
     }
 
     /**
@@ -41,8 +75,27 @@ public class StructureService {
      */
     public List<PMPoint> getDataList() throws IOException {
 
-        // Declare result
-        List<PMPoint> result = new ArrayList<>();
+        // Parse every record into columns, then copy out PMPoint objects
+        ColumnarPointStore store = this.getDataStore();
+        List<PMPoint> result = new ArrayList<>(store.size());
+        for (int h = 0; h < store.size(); h++)
+            result.add(store.getPoint(h));
+
+        // Return result List, as required
+        return result;
+    }
+
+    /**
+     * Returns a ColumnarPointStore of all records of the classpath
+     * resource "pm25_2009_measured.csv", in the order of getDataList().
+     * Stations are numbered from 0 in the order their ids first appear.
+     * The resource is parsed as bytes by a CsvPointReader, in chunks
+     * spread over the common ForkJoinPool.
+     *
+     * @return a PointStore containing all records from
+     *         "pm25_2009_measured.csv"
+     */
+    public ColumnarPointStore getDataStore() throws IOException {
 
         // Create InputStream from CLASSPATH resource
         InputStream rStream = this.getClass().getResourceAsStream(
@@ -50,14 +103,34 @@ public class StructureService {
         if (rStream == null)
             throw new IOException("CLASSPATH resource not found.");
 
-        // Read and store PMPoint objects
-        Scanner s = new Scanner(rStream);
-        s.nextLine();
-        while (s.hasNextLine())
-            result.add(PMPoint.dataPoint(s.nextLine()));
+        // Read and store the fields of each record
+        try (InputStream in = rStream) {
+            return CsvPointReader.read(in, ForkJoinPool.commonPool());
+        }
+    }
 
-        // Return result List, as required
-        return result;
+    /**
+     * Returns a ColumnarPointStore of all records of a csv file in the
+     * format of "pm25_2009_measured.csv", such as a larger data set kept
+     * outside the CLASSPATH. The file is mapped rather than read.
+     *
+     * @param path the location of the csv file
+     * @return a PointStore containing all records from the file
+     */
+    public ColumnarPointStore getDataStore(Path path) throws IOException {
+        return CsvPointReader.read(path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns a StationStore of all records of the classpath resource
+     * "pm25_2009_measured.csv", holding the coordinates of each station
+     * once and its readings by day.
+     *
+     * @return a StationStore containing all records from
+     *         "pm25_2009_measured.csv"
+     */
+    public StationStore getStationStore() throws IOException {
+        return StationStore.of(this.getDataStore());
     }
 
     /**
@@ -79,13 +152,26 @@ public class StructureService {
      * @return a partition of all available PMPoint records into k sets
      */
     public PMPoint[][] getRandomPartition(int k) throws IOException {
+        return getRandomPartition(k, new Random().nextLong());
+    }
+
+    /**
+     * Returns the random partition of getRandomPartition(k) given by a
+     * seeded shuffle, so that the same seed always gives the same sets.
+     *
+     * @param k the number of sets in the resulting partition
+     * @param seed the seed of the shuffle
+     * @return a partition of all available PMPoint records into k sets
+     */
+    public PMPoint[][] getRandomPartition(int k, long seed)
+            throws IOException {
 
         // declare result, a jagged array
         PMPoint[][] result = new PMPoint[k][];
 
         // shuffle a new List of PMPoint objects
         List<PMPoint> pointList = getDataList();
-        Collections.shuffle(pointList);
+        Collections.shuffle(pointList, new Random(seed));
 
         // manually specify the remaining dimensions of result
         int l = pointList.size() / k;
@@ -96,12 +182,38 @@ public class StructureService {
             else
                 result[i] = new PMPoint[l];
 
-        // fill result with the contents of pointList
+        // deal the contents of pointList to the rows of result in turn
+        int next = 0;
         for (int col = 0; col < l + 1; col++)
-            for (int row = 0; row < k; row++)
-                if (pointList.size() > 0)
-                    result[row][col] = pointList.remove(0);
+            for (int row = 0; row < k && next < pointList.size(); row++)
+                result[row][col] = pointList.get(next++);
 
         return result;
     }
+
+    /**
+     * Returns a random partition of every measurement of store into k
+     * folds. Only handles are shuffled; the first size % k folds hold one
+     * more measurement than the others, as in getRandomPartition(k).
+     *
+     * @param store the store holding the measurements
+     * @param k the number of folds in the resulting partition
+     * @return a partition of all measurements of store into k folds
+     */
+    public Partition getRandomPartition(PointStore store, int k) {
+        return getRandomPartition(store, k, new Random().nextLong());
+    }
+
+    /**
+     * Returns a reproducible random partition of every measurement of
+     * store into k folds; the same seed always gives the same folds.
+     *
+     * @param store the store holding the measurements
+     * @param k the number of folds in the resulting partition
+     * @param seed the seed of the shuffle
+     * @return a partition of all measurements of store into k folds
+     */
+    public Partition getRandomPartition(PointStore store, int k, long seed) {
+        return Partition.random(store, k, seed);
+    }
 }
@@ -0,0 +1,86 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+/**
+ * Estimates every variable of the elements of a KDTree at a query from a
+ * single search, so that the cost of the search is shared by all of the
+ * variables. The IDW weight of each neighbor is computed once, as
+ * IdwKernel.weight() gives it; each variable is then the weighted mean of
+ * the neighbors that measured it. A neighbor whose value of a variable is
+ * NaN is left out of the estimate of that variable, and the weights of
+ * the remaining neighbors are normalized over those neighbors alone.
+ * <p>
+ * Like a NeighborHeap, a VariableEstimator keeps its buffers across
+ * queries, so one instance should be used by each thread.
+ *
+ * @author Jason Franklin
+ */
+public class VariableEstimator {
+
+    private final double power;
+
+    // the weight of each neighbor of the current query
+    private double[] weights;
+
+    /**
+     * Allocate a VariableEstimator weighing neighbors with power.
+     *
+     * @param power the power of the IDW weights
+     * @throws IllegalArgumentException if power is not finite
+     */
+    public VariableEstimator(double power) {
+        if (Double.isNaN(power) || Double.isInfinite(power))
+            throw new IllegalArgumentException();
+        this.power = power;
+        weights = new double[0];
+    }
+
+    public double getPower() {
+        return power;
+    }
+
+    /**
+     * Fill estimates[v] with the estimate of every variable v of the
+     * elements of tree from the neighbors a search of tree collected in
+     * heap. The estimate of a variable is NaN if no neighbor measured it,
+     * and the mean of the neighbors at distance 0 that measured it if
+     * there are any, as in IdwKernel.
+     *
+     * @param tree the KDTree that was searched to fill heap
+     * @param heap the nearest neighbors of the query in tree
+     * @param estimates the array to fill, of at least
+     *                  tree.getVariableCount() elements
+     */
+    public void estimate(KDTree<?> tree, NeighborHeap heap,
+                         double[] estimates) {
+        int count = heap.size();
+        if (weights.length < count)
+            weights = new double[count];
+        for (int n = 0; n < count; n++)
+            weights[n] = IdwKernel.weight(power, heap.getDistanceSquared(n));
+
+        for (int v = 0; v < tree.getVariableCount(); v++) {
+            double sum_d = 0.0;
+            double result = 0.0;
+            int coincident = 0;
+            double coincidentSum = 0.0;
+            for (int n = 0; n < count; n++) {
+                double value = tree.getValue(heap.getIndex(n), v);
+                if (Double.isNaN(value))
+                    continue;
+                if (weights[n] == Double.POSITIVE_INFINITY) {
+                    coincident++;
+                    coincidentSum += value;
+                } else {
+                    sum_d += weights[n];
+                    result += weights[n] * value;
+                }
+            }
+            if (coincident > 0)
+                estimates[v] = coincidentSum / coincident;
+            else if (sum_d > 0.0)
+                estimates[v] = result / sum_d;
+            else
+                estimates[v] = Double.NaN;
+        }
+    }
+}
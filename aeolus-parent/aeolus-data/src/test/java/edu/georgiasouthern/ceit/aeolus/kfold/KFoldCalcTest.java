@@ -1,12 +1,18 @@
 package edu.georgiasouthern.ceit.aeolus.kfold;
 
+import edu.georgiasouthern.ceit.aeolus.structures.KDTree;
 import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+import edu.georgiasouthern.ceit.aeolus.structures.Partition;
 import edu.georgiasouthern.ceit.aeolus.structures.StructureService;
 
+import org.junit.gen5.api.Assertions;
 import org.junit.gen5.api.BeforeAll;
 import org.junit.gen5.api.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Test the functionality of KFoldCalc. See that the computations
@@ -43,4 +49,169 @@ class KFoldCalcTest {
         System.out.println("KFold.RMSPE(partition, conf) = " +
                 new KFoldCalc().RMSPE(partition, conf));
     }
+
+    @Test
+    void testEvaluate() {
+        KFoldConf conf = new KFoldConf(10, 3, 5.0);
+        KFoldResult result = new KFoldCalc().evaluate(partition, conf,
+                Metric.MAE, Metric.MARE, Metric.RMSPE, Metric.CVRS);
+        System.out.println(result);
+
+        // one pass gives the same figures as one pass per statistic
+        Assertions.assertEquals(new KFoldCalc().MARE(partition, conf),
+                result.getValue(Metric.MARE));
+        Assertions.assertEquals(new KFoldCalc().RMSPE(partition, conf),
+                result.getValue(Metric.RMSPE));
+        Assertions.assertEquals(10, result.getFoldValues(Metric.MAE).length);
+    }
+
+    @Test
+    void testParallelEvaluate() {
+        KFoldConf conf = new KFoldConf(10, 3, 5.0);
+        KFoldResult sequential = new KFoldCalc().evaluate(partition, conf,
+                Metric.MAE, Metric.CVRS);
+        KFoldResult parallel = new KFoldCalc(FoldTreeCache.getInstance(),
+                new ForkJoinPool(4)).evaluate(partition, conf,
+                Metric.MAE, Metric.CVRS);
+
+        // chunks are merged in the same order with or without a pool
+        Assertions.assertEquals(sequential.getValue(Metric.MAE),
+                parallel.getValue(Metric.MAE));
+        Assertions.assertEquals(sequential.getValue(Metric.CVRS),
+                parallel.getValue(Metric.CVRS));
+    }
+
+    @Test
+    void testSweep() {
+        List<KFoldConf> confs = new ArrayList<>();
+        for (int n = 3; n <= 7; n += 2)
+            for (double p = 1.0; p <= 5.0; p += 2.0)
+                confs.add(new KFoldConf(10, n, p));
+
+        // every configuration of the sweep matches its own evaluation
+        List<KFoldResult> results =
+                new KFoldCalc().sweep(partition, confs, Metric.MAE);
+        Assertions.assertEquals(confs.size(), results.size());
+        for (int c = 0; c < confs.size(); c++)
+            Assertions.assertEquals(
+                    new KFoldCalc().MAE(partition, confs.get(c)),
+                    results.get(c).getValue(Metric.MAE));
+    }
+
+    @Test
+    void testPartition() {
+        List<KFoldConf> confs = new ArrayList<>();
+        for (int n = 3; n <= 7; n += 2)
+            confs.add(new KFoldConf(10, n, 2.0));
+
+        // a Partition copied from the array validates exactly like it
+        Partition copy = Partition.of(partition);
+        List<KFoldResult> expected =
+                new KFoldCalc().sweep(partition, confs, Metric.MAE);
+        List<KFoldResult> results =
+                new KFoldCalc().sweep(copy, confs, Metric.MAE);
+        for (int c = 0; c < confs.size(); c++)
+            Assertions.assertEquals(expected.get(c).getValue(Metric.MAE),
+                    results.get(c).getValue(Metric.MAE));
+    }
+
+    @Test
+    void testLeaveOneOut() {
+        KFoldConf conf = new KFoldConf(10, 5, 5.0);
+        KFoldResult result = new KFoldCalc(FoldTreeCache.getInstance(),
+                new ForkJoinPool()).leaveOneOut(partition, conf,
+                Metric.MAE, Metric.MARE);
+        System.out.println("KFold.leaveOneOut(partition, conf) = " + result);
+
+        // every point is validated at once, as a single fold
+        Assertions.assertEquals(1, result.getFoldValues(Metric.MAE).length);
+        Assertions.assertEquals(result.getFoldValues(Metric.MARE)[0],
+                result.getValue(Metric.MARE));
+    }
+
+    @Test
+    void testBagging() throws IOException {
+        List<KFoldConf> confs = new ArrayList<>();
+        for (int n = 3; n <= 5; n++)
+            confs.add(new KFoldConf(10, n, 2.0, 0.75, 3, 42L));
+
+        // a seeded partition, so that the bags are the same on every run
+        PMPoint[][] seeded = new StructureService().getRandomPartition(10,
+                2016L);
+
+        // the bags of every fold are sampled once for the whole sweep
+        BagTreeCache.getInstance().clear();
+        List<KFoldResult> results =
+                new KFoldCalc().sweep(seeded, confs, Metric.MARE);
+        Assertions.assertEquals(10, BagTreeCache.getInstance().size());
+        for (int c = 0; c < confs.size(); c++) {
+            System.out.println("KFold.sweep(seeded, bagged) = " +
+                    results.get(c));
+            Assertions.assertEquals(
+                    new KFoldCalc().MARE(seeded, confs.get(c)),
+                    results.get(c).getValue(Metric.MARE));
+        }
+    }
+
+    @Test
+    void testEmptyBags() {
+
+        // an alpha this small truncates every bag to no measurement at all
+        KFoldConf conf = new KFoldConf(10, 3, 2.0, 1e-9, 3, 42L);
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new KFoldCalc().MARE(partition, conf));
+    }
+
+    @Test
+    void testSuccessiveHalving() {
+        List<KFoldConf> confs = new ArrayList<>();
+        for (int n = 3; n <= 7; n += 2)
+            for (double p = 1.0; p <= 5.0; p += 2.0)
+                confs.add(new KFoldConf(10, n, p));
+
+        SuccessiveHalving.Result result = new SuccessiveHalving(
+                new KFoldCalc(), Metric.MARE).search(partition, confs);
+        System.out.println("SuccessiveHalving.search(partition, confs) = " +
+                result);
+
+        // the best configuration is validated on every fold
+        Assertions.assertEquals(10,
+                result.getBest().getFoldValues(Metric.MARE).length);
+        Assertions.assertEquals(
+                new KFoldCalc().MARE(partition, result.getBest().getConf()),
+                result.getBest().getValue(Metric.MARE));
+        Assertions.assertEquals(confs.size() * 10L,
+                result.getFoldEvaluations() +
+                        result.getSavedFoldEvaluations());
+        Assertions.assertTrue(result.getSavedFoldEvaluations() > 0);
+    }
+
+    @Test
+    void testConfOptimizer() {
+        ConfOptimizer.Result result = new ConfOptimizer(new KFoldCalc(),
+                Metric.MARE, 10).optimizePower(partition, 3, 3, 0.1, 1.0, 5.0);
+        System.out.println("ConfOptimizer.optimizePower(partition) = " +
+                result);
+
+        // the best result is the minimum of the trace
+        Assertions.assertTrue(result.getEvaluations() <= 50);
+        for (KFoldResult r : result.getTrace())
+            Assertions.assertTrue(result.getBest().getValue(Metric.MARE) <=
+                    r.getValue(Metric.MARE));
+    }
+
+    @Test
+    void testFoldTreeCache() {
+        FoldTreeCache cache = new FoldTreeCache(1);
+        KDTree<PMPoint> tree = cache.getTree(partition);
+        Assertions.assertTrue(tree == cache.getTree(partition));
+        Assertions.assertEquals(146125, tree.size());
+        Assertions.assertTrue(tree.isLabelled());
+
+        // a tree for another partition evicts the least recently used one
+        PMPoint[][] other = partition.clone();
+        cache.getTree(other);
+        Assertions.assertEquals(1, cache.size());
+        Assertions.assertTrue(tree != cache.getTree(partition));
+    }
 }
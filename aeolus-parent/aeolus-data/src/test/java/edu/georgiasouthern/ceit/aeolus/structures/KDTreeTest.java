@@ -0,0 +1,474 @@
+package edu.georgiasouthern.ceit.aeolus.structures;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.gen5.api.Assertions;
+import org.junit.gen5.api.BeforeAll;
+import org.junit.gen5.api.Test;
+
+/**
+ * JUnit tests for the KDTree class. Nearest neighbor searches are
+ * checked against a brute force scan over a synthetic set of stations,
+ * so these tests do not depend on any CLASSPATH resource.
+ *
+ * @author Jason Franklin
+ */
+class KDTreeTest {
+
+    static List<PMPoint> points;
+    static List<PMPoint> queries;
+
+    @BeforeAll
+    static void initAll() {
+        Random random = new Random(2009);
+
+        // daily readings at 100 stations, about a third of the days each
+        points = new ArrayList<>();
+        for (int station = 0; station < 100; station++) {
+            double x = -125.0 + 58.0 * random.nextDouble();
+            double y = 25.0 + 24.0 * random.nextDouble();
+            for (int day = 1; day <= 28; day++)
+                for (int month = 1; month <= 12; month++)
+                    if (random.nextInt(3) == 0)
+                        points.add(PMPoint.dataPoint(station + ",2009," +
+                                month + "," + day + "," + x + "," + y +
+                                "," + (1 + random.nextInt(400)) / 10.0));
+        }
+
+        queries = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            queries.add(PMPoint.queryPoint(i + "," +
+                    (-125.0 + 58.0 * random.nextDouble()) + "," +
+                    (25.0 + 24.0 * random.nextDouble()),
+                    1 + random.nextInt(365)));
+    }
+
+    /**
+     * Test that a built tree holds every element and returns the same
+     * neighbor distances as a brute force scan.
+     */
+    @Test
+    void testBuiltTreeNearestNeighbors() {
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        tree.build(new ArrayList<>(points));
+        Assertions.assertEquals(points.size(), tree.size());
+        assertMatchesBruteForce(tree, points);
+    }
+
+    /**
+     * Test that a build split across a ForkJoinPool produces exactly the
+     * tree built on a single thread, rooted at the median on the x axis.
+     */
+    @Test
+    void testParallelBuild() {
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        tree.build(points);
+        KDTree<PMPoint> parallelTree = new KDTree<>(3);
+        parallelTree.build(points, new ForkJoinPool(4));
+
+        Assertions.assertEquals(tree.size(), parallelTree.size());
+        for (int i = 0; i < tree.size(); i++)
+            Assertions.assertTrue(
+                    tree.getElement(i) == parallelTree.getElement(i));
+
+        List<PMPoint> sorted = new ArrayList<>(points);
+        Collections.sort(sorted, (a, b) -> Double.compare(a.get(0), b.get(0)));
+        Assertions.assertEquals(sorted.get(sorted.size() / 2),
+                tree.getRootElement());
+    }
+
+    /**
+     * Test that a tree grown one element at a time returns the same
+     * neighbor distances as a brute force scan.
+     */
+    @Test
+    void testIncrementalTreeNearestNeighbors() {
+        List<PMPoint> subset = points.subList(0, 2000);
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        for (PMPoint p : subset)
+            tree.addElement(p);
+        Assertions.assertEquals(subset.size(), tree.size());
+        assertMatchesBruteForce(tree, subset);
+    }
+
+    /**
+     * Test that a NeighborHeap reused across queries is filled with the
+     * same nearest neighbors as a brute force scan, nearest first.
+     */
+    @Test
+    void testNeighborHeapSearch() {
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        tree.build(new ArrayList<>(points));
+        NeighborHeap heap = new NeighborHeap(5);
+        for (PMPoint q : queries) {
+            double[] expected = new double[points.size()];
+            for (int i = 0; i < expected.length; i++)
+                expected[i] = points.get(i).euclideanDistance(q);
+            Arrays.sort(expected);
+
+            tree.getNearestNeighbors(q, heap);
+            Assertions.assertEquals(5, heap.size());
+            for (int i = 0; i < 5; i++) {
+                PMPoint neighbor = tree.getElement(heap.getIndex(i));
+                Assertions.assertEquals(expected[i],
+                        neighbor.euclideanDistance(q));
+                Assertions.assertTrue(Math.abs(expected[i] -
+                        Math.sqrt(heap.getDistanceSquared(i))) < 1e-9);
+            }
+        }
+    }
+
+    /**
+     * Test that a batch search, run sequentially or in a ForkJoinPool,
+     * returns each query's neighbors in the original query order.
+     */
+    @Test
+    void testBatchSearch() {
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        tree.build(points);
+        NeighborTable sequential = tree.getNearestNeighbors(4, queries, null);
+        NeighborTable parallel =
+                tree.getNearestNeighbors(4, queries, new ForkJoinPool(4));
+        Assertions.assertEquals(queries.size(), sequential.size());
+
+        NeighborHeap heap = new NeighborHeap(4);
+        for (int i = 0; i < queries.size(); i++) {
+            tree.getNearestNeighbors(queries.get(i), heap);
+            Assertions.assertEquals(4, sequential.getNeighborCount(i));
+            for (int j = 0; j < 4; j++) {
+                Assertions.assertEquals(heap.getDistanceSquared(j),
+                        sequential.getDistanceSquared(i, j));
+                Assertions.assertEquals(heap.getDistanceSquared(j),
+                        parallel.getDistanceSquared(i, j));
+            }
+        }
+    }
+
+    /**
+     * Test that excluding a label from a search of a labelled tree gives
+     * the same neighbors as a search of a tree without those elements.
+     */
+    @Test
+    void testLabelExclusion() {
+        int[] labels = new int[points.size()];
+        List<PMPoint> training = new ArrayList<>();
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = i % 10;
+            if (labels[i] != 3)
+                training.add(points.get(i));
+        }
+        KDTree<PMPoint> labelledTree = new KDTree<>(3);
+        labelledTree.build(points, labels, null);
+        KDTree<PMPoint> trainingTree = new KDTree<>(3);
+        trainingTree.build(training);
+
+        NeighborHeap expected = new NeighborHeap(5);
+        NeighborHeap heap = new NeighborHeap(5);
+        for (PMPoint q : queries) {
+            trainingTree.getNearestNeighbors(q, expected);
+            labelledTree.getNearestNeighbors(q, heap, 3);
+            for (int i = 0; i < 5; i++) {
+                Assertions.assertEquals(expected.getDistanceSquared(i),
+                        heap.getDistanceSquared(i));
+                Assertions.assertTrue(
+                        labelledTree.getLabel(heap.getIndex(i)) != 3);
+            }
+        }
+    }
+
+    /**
+     * Test that a search weighing the time axis finds the neighbors of a
+     * brute force scan over the weighted distances, as a tree over points
+     * with rescaled times would.
+     */
+    @Test
+    void testWeightedSearch() {
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        tree.build(points);
+        double[] weights = {1.0, 1.0, 4.0};
+
+        NeighborHeap heap = new NeighborHeap(5);
+        for (PMPoint q : queries) {
+            double[] expected = new double[points.size()];
+            for (int i = 0; i < expected.length; i++)
+                for (int a = 0; a < 3; a++) {
+                    double diff = points.get(i).get(a) - q.get(a);
+                    expected[i] += weights[a] * diff * diff;
+                }
+            Arrays.sort(expected);
+
+            tree.getNearestNeighbors(q, heap, -1, weights);
+            for (int i = 0; i < 5; i++)
+                Assertions.assertTrue(Math.abs(
+                        expected[i] - heap.getDistanceSquared(i)) < 1e-9);
+        }
+    }
+
+    /**
+     * Test that when many nodes share their coordinates, so that the k-th
+     * distance is often tied, the k nearest neighbors are still the first
+     * k of the k + 1 nearest, with and without weights.
+     */
+    @Test
+    void testTiedNeighbors() {
+        Random random = new Random(2);
+        List<PMPoint> tied = new ArrayList<>();
+        for (int i = 0; i < 4000; i++)
+            tied.add(PMPoint.valueOf(-90.0 + 0.1 * random.nextInt(20),
+                    30.0 + 0.1 * random.nextInt(20),
+                    PMPoint.TIME_SCALE * (1 + random.nextInt(30)), 1.0));
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        tree.build(tied);
+
+        double[][] weightings = {{1.0, 1.0, 1.0}, {1.0, 1.0, 0.7}};
+        for (double[] weights : weightings)
+            for (int i = 0; i < 300; i++) {
+                double[] query = {
+                        -90.0 + 0.1 * random.nextInt(20) +
+                                0.05 * random.nextInt(3),
+                        30.0 + 0.1 * random.nextInt(20) +
+                                0.05 * random.nextInt(3),
+                        PMPoint.TIME_SCALE * (1 + random.nextInt(30))};
+                for (int k = 1; k <= 7; k++) {
+                    NeighborHeap heap = new NeighborHeap(k);
+                    NeighborHeap more = new NeighborHeap(k + 1);
+                    tree.getNearestNeighbors(query, heap, -1, weights);
+                    tree.getNearestNeighbors(query, more, -1, weights);
+                    for (int n = 0; n < k; n++)
+                        Assertions.assertEquals(more.getIndex(n),
+                                heap.getIndex(n));
+                }
+            }
+    }
+
+    /**
+     * Test that a tree restored from its flat nodes, as a serializer
+     * would, searches exactly like the original.
+     */
+    @Test
+    void testFromNodes() {
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        tree.build(points);
+
+        int n = tree.size();
+        List<PMPoint> elements = new ArrayList<>();
+        int[] left = new int[n];
+        int[] right = new int[n];
+        for (int i = 0; i < n; i++) {
+            PMPoint p = tree.getElement(i);
+            elements.add(PMPoint.valueOf(p.get(0), p.get(1), p.get(2),
+                    p.get(3)));
+            left[i] = tree.getLeft(i);
+            right[i] = tree.getRight(i);
+        }
+        KDTree<PMPoint> copy = KDTree.fromNodes(3, elements, left, right,
+                null);
+        assertMatchesBruteForce(copy, points);
+
+        // a child listed before its parent is not a flat tree
+        left[0] = right[0] = -1;
+        left[1] = 0;
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> KDTree.fromNodes(3, elements, left, right, null));
+    }
+
+    /**
+     * Test that a tree written to an index file and mapped back finds the
+     * same nodes, in the same order, as the tree it was written from.
+     */
+    @Test
+    void testMappedIndex() throws IOException {
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        tree.build(points);
+        Path path = Files.createTempFile("kdtree", ".idx");
+        try {
+            MappedKDTree.write(tree, path);
+            MappedKDTree mapped = MappedKDTree.open(path);
+            Assertions.assertEquals(tree.size(), mapped.size());
+
+            NeighborHeap expected = new NeighborHeap(7);
+            NeighborHeap heap = new NeighborHeap(7);
+            for (PMPoint q : queries) {
+                tree.getNearestNeighbors(q, expected);
+                mapped.getNearestNeighbors(q, heap);
+                for (int i = 0; i < 7; i++) {
+                    int index = heap.getIndex(i);
+                    Assertions.assertEquals(expected.getIndex(i), index);
+                    Assertions.assertEquals(tree.getElement(index).get(3),
+                            mapped.getValue(index));
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Test that an index file holds every variable of a tree built over a
+     * store, NaN included, and that a mapped tree names them alike.
+     */
+    @Test
+    void testMappedVariables() throws IOException {
+        ColumnarPointStore store = new ColumnarPointStore(points.size(), 3);
+        int[] handles = new int[points.size()];
+        for (int i = 0; i < handles.length; i++) {
+            PMPoint p = points.get(i);
+            int day = (int) Math.round(p.get(2) / PMPoint.TIME_SCALE);
+            handles[i] = store.add(-1, day, p.get(0), p.get(1),
+                    new double[] {p.get(3), i % 3 == 0 ? Double.NaN : i,
+                            -p.get(3)});
+        }
+        KDTree<PMPoint> tree = KDTree.fromStore(store, handles, null, null);
+        Path path = Files.createTempFile("kdtree", ".idx");
+        try {
+            MappedKDTree.write(tree, path);
+            MappedKDTree mapped = MappedKDTree.open(path);
+            Assertions.assertEquals(3, mapped.getVariableCount());
+            for (int i = 0; i < tree.size(); i++)
+                for (int v = 0; v < 3; v++)
+                    Assertions.assertEquals(tree.getValue(i, v),
+                            mapped.getValue(i, v));
+            Assertions.assertThrows(IndexOutOfBoundsException.class,
+                    () -> mapped.getValue(0, 3));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Test that an IdwKernel gives, for every power of a grid at once, the
+     * estimates of weights computed with Math.pow(), and the mean of the
+     * coincident neighbors when some are at distance 0.
+     */
+    @Test
+    void testIdwKernel() {
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        tree.build(points);
+        double[] powers = {1.0, 1.5, 2.0, 2.5, 3.0, 3.5, 4.0, 4.5, 5.0, 1.3};
+        IdwKernel kernel = new IdwKernel(powers);
+
+        NeighborHeap heap = new NeighborHeap(7);
+        double[] distances = new double[7];
+        double[] values = new double[7];
+        double[][] estimates = new double[powers.length][8];
+        for (PMPoint q : queries) {
+            tree.getNearestNeighbors(q, heap);
+            for (int n = 0; n < 7; n++) {
+                distances[n] = heap.getDistanceSquared(n);
+                values[n] = tree.getValue(heap.getIndex(n));
+            }
+            kernel.estimatePrefixes(distances, values, 7, estimates);
+            for (int c = 0; c < powers.length; c++) {
+                double sum_d = 0.0;
+                double expected = 0.0;
+                for (int n = 0; n < 7; n++) {
+                    double w = Math.pow(distances[n], -powers[c] / 2.0);
+                    sum_d += w;
+                    expected += w * values[n];
+                }
+                Assertions.assertEquals(expected / sum_d, estimates[c][7],
+                        1e-9);
+                Assertions.assertEquals(estimates[c][7],
+                        q.getEstimate(tree, heap, powers[c]), 1e-9);
+            }
+        }
+
+        double[] coincident = {0.0, 0.0, 1.0};
+        double[] readings = {10.0, 20.0, 30.0};
+        kernel.estimatePrefixes(coincident, readings, 3, estimates);
+        Assertions.assertEquals(10.0, estimates[0][1]);
+        Assertions.assertEquals(15.0, estimates[0][3]);
+        Assertions.assertEquals(20.0,
+                new IdwKernel(0.0).estimate(0, coincident, readings, 3));
+    }
+
+    /**
+     * Test that a VariableEstimator estimates the first variable of a
+     * store tree as PMPoint.getEstimate() does, and a second variable with
+     * missing values from the neighbors that measured it only.
+     */
+    @Test
+    void testVariableEstimator() {
+        ColumnarPointStore store = new ColumnarPointStore(points.size(), 2);
+        int[] handles = new int[points.size()];
+        for (int i = 0; i < handles.length; i++) {
+            PMPoint p = points.get(i);
+            double second = i % 4 == 0 ? Double.NaN : 2.0 * p.get(3);
+            int day = (int) Math.round(p.get(2) / PMPoint.TIME_SCALE);
+            handles[i] = store.add(-1, day, p.get(0), p.get(1),
+                    new double[] {p.get(3), second});
+        }
+        KDTree<PMPoint> tree = KDTree.fromStore(store, handles, null, null);
+        Assertions.assertEquals(2, tree.getVariableCount());
+
+        NeighborHeap heap = new NeighborHeap(5);
+        VariableEstimator estimator = new VariableEstimator(2.0);
+        double[] estimates = new double[2];
+        for (PMPoint q : queries) {
+            tree.getNearestNeighbors(q, heap);
+            estimator.estimate(tree, heap, estimates);
+            Assertions.assertEquals(q.getEstimate(tree, heap, 2.0),
+                    estimates[0], 1e-9);
+
+            double sum_d = 0.0;
+            double expected = 0.0;
+            for (int n = 0; n < heap.size(); n++) {
+                int handle = tree.getHandle(heap.getIndex(n));
+                if (handle % 4 != 0) {
+                    double w = 1.0 / heap.getDistanceSquared(n);
+                    sum_d += w;
+                    expected += w * store.getValue(handle, 1);
+                }
+            }
+            if (sum_d > 0.0)
+                Assertions.assertEquals(expected / sum_d, estimates[1], 1e-9);
+            else
+                Assertions.assertTrue(Double.isNaN(estimates[1]));
+        }
+    }
+
+    /**
+     * Test that a tree degenerated into a chain by inserting sorted
+     * elements one at a time can still be searched.
+     */
+    @Test
+    void testDegenerateTreeSearch() {
+        KDTree<PMPoint> tree = new KDTree<>(3);
+        for (int i = 0; i < 30000; i++)
+            tree.addElement(PMPoint.dataPoint("0,2009,1,1," +
+                    (-115.0 + i * 0.0005) + ",30.0,10.0"));
+
+        PMPoint q = PMPoint.queryPoint("0,-105.0,30.0", 1);
+        NeighborHeap heap = new NeighborHeap(3);
+        tree.getNearestNeighbors(q, heap);
+        Assertions.assertEquals(3, heap.size());
+        Assertions.assertTrue(Math.sqrt(heap.getDistanceSquared(2)) < 0.001);
+    }
+
+    // compare each k-NN search of tree with a scan over all of elements
+    private void assertMatchesBruteForce(KDTree<PMPoint> tree,
+                                         List<PMPoint> elements) {
+        for (PMPoint q : queries) {
+            double[] expected = new double[elements.size()];
+            for (int i = 0; i < expected.length; i++)
+                expected[i] = elements.get(i).euclideanDistance(q);
+            Arrays.sort(expected);
+
+            for (int k = 1; k <= 7; k++) {
+                List<PMPoint> result =
+                        tree.getNearestNeighbors(k, q).getList();
+                Assertions.assertEquals(k, result.size());
+                for (int i = 0; i < k; i++)
+                    Assertions.assertEquals(expected[i],
+                            result.get(i).euclideanDistance(q));
+            }
+        }
+    }
+}
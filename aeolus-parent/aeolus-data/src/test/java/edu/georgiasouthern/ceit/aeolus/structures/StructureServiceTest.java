@@ -1,8 +1,15 @@
 package edu.georgiasouthern.ceit.aeolus.structures;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.gen5.api.Assertions;
 import org.junit.gen5.api.Test;
 
@@ -51,6 +58,160 @@ class StructureServiceTest {
         Assertions.assertEquals(ptLast.get(3), 12.2);
     }
 
+    /**
+     * Test that call to getDataStore() in StructureService succeeds and
+     * holds the same records as getDataList().
+     */
+    @Test
+    void testGetDataStore() {
+
+        try {
+            ColumnarPointStore store = new StructureService().getDataStore();
+            dataList = new StructureService().getDataList();
+            Assertions.assertEquals(dataList.size(), store.size());
+            for (int h = 0; h < store.size(); h += 997)
+                for (int i = 0; i < 4; i++)
+                    Assertions.assertEquals(dataList.get(h).get(i),
+                            store.get(h, i));
+        }
+        catch (IOException ex) {
+            Assertions.fail("\"pm25_2009_measured.csv\" couldn't be found.");
+        }
+    }
+
+    /**
+     * Test that a CsvPointReader, reading a file or a stream, sequentially
+     * or in parallel, parses each record into the tuple PMPoint.dataPoint()
+     * gives it, and numbers stations in the order they first appear.
+     */
+    @Test
+    void testCsvPointReader() throws IOException {
+        List<String> records = new ArrayList<>();
+        StringBuilder csv = new StringBuilder("id,year,month,day,x,y,pm25\n");
+        for (int i = 0; i < 5000; i++) {
+            String record = "st" + (i * 7 % 13) + ",2009," + (1 + i % 12) +
+                    "," + (1 + i % 28) + "," + (-125.0 + i * 0.0117) + "," +
+                    (25.0 + i % 240 / 10.0) + "," +
+                    (i % 50 == 0 ? "1.5e1" : "" + i % 400 / 10.0);
+            records.add(record);
+            csv.append(record).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+
+        Path path = Files.createTempFile("records", ".csv");
+        try {
+            Files.write(path, bytes);
+            List<ColumnarPointStore> stores = new ArrayList<>();
+            stores.add(CsvPointReader.read(path, null));
+            stores.add(CsvPointReader.read(path, new ForkJoinPool(4)));
+            stores.add(CsvPointReader.read(
+                    new ByteArrayInputStream(bytes), new ForkJoinPool(4)));
+            for (ColumnarPointStore store : stores) {
+                Assertions.assertEquals(records.size(), store.size());
+                for (int h = 0; h < store.size(); h++) {
+                    PMPoint p = PMPoint.dataPoint(records.get(h));
+                    for (int i = 0; i < 4; i++)
+                        Assertions.assertEquals(p.get(i), store.get(h, i));
+                    Assertions.assertEquals(h < 13 ? h : h % 13,
+                            store.getStation(h));
+                }
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Test that a QuerySource parses each site record once and generates
+     * the query points PMPoint.queryPoint() would, one at a time or as a
+     * block of coordinates.
+     */
+    @Test
+    void testQuerySource() {
+        List<String> records = Arrays.asList("id,x,y",
+                "13001,-82.3,31.7", "13003,-82.9,31.3", "13005,-82.5,31.5");
+        QuerySource source = QuerySource.of(records.iterator(), 100, 130);
+        Assertions.assertEquals(3, source.getSiteCount());
+        Assertions.assertEquals(93L, source.size());
+
+        double[] block = new double[3 * 40];
+        Assertions.assertEquals(40, source.fill(20, block));
+        for (int j = 0; j < 40; j++) {
+            long q = 20 + j;
+            PMPoint expected = PMPoint.queryPoint(
+                    records.get(1 + source.getSite(q)), source.getDay(q));
+            Assertions.assertEquals(expected, source.getPoint(q));
+            for (int a = 0; a < 3; a++)
+                Assertions.assertEquals(expected.get(a), block[j * 3 + a]);
+        }
+        Assertions.assertEquals(13, source.fill(80, block));
+    }
+
+    /**
+     * Test that a random Partition of a store holds every handle once, in
+     * folds of nearly equal size, and that seeded and contiguous
+     * partitions are reproducible.
+     */
+    @Test
+    void testGetRandomStorePartition() {
+        ColumnarPointStore store = new ColumnarPointStore();
+        for (int h = 0; h < 1005; h++)
+            store.add(h % 7, 1 + h % 365, -80.0, 35.0, h);
+        Partition partition = new StructureService().getRandomPartition(
+                store, 10);
+
+        boolean[] seen = new boolean[store.size()];
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(i < 5 ? 101 : 100,
+                    partition.getFoldSize(i));
+            for (int handle : partition.getFold(i)) {
+                Assertions.assertFalse(seen[handle]);
+                seen[handle] = true;
+            }
+        }
+        Assertions.assertEquals(904, partition.getTrainingSet(0).length);
+
+        // the same seed gives the same folds
+        Partition seeded = new StructureService().getRandomPartition(
+                store, 10, 2009L);
+        Assertions.assertTrue(Arrays.equals(seeded.getHandles(),
+                Partition.random(store, 10, 2009L).getHandles()));
+
+        // contiguous folds take the handles in order
+        Partition contiguous = Partition.contiguous(store, 10);
+        Assertions.assertEquals(101, contiguous.getHandle(1, 0));
+        Assertions.assertEquals(1004, contiguous.getHandle(9, 99));
+    }
+
+    /**
+     * Test that a StationStore keeps every reading of its source, finds
+     * each by station and day, and splits a station reporting twice on
+     * one day into two stations.
+     */
+    @Test
+    void testStationStore() {
+        ColumnarPointStore source = new ColumnarPointStore();
+        for (int h = 0; h < 1000; h++)
+            source.add(h % 10, 1 + (h * 7) % 366, -80.0 - h % 10, 35.0,
+                    h / 10.0);
+        source.add(3, 4, -83.0, 35.0, 99.5);
+        source.add(3, 4, -83.0, 35.0, 99.5);
+        StationStore store = StationStore.of(source);
+
+        Assertions.assertEquals(source.size(), store.size());
+        Assertions.assertEquals(11, store.getStationCount());
+        double sum = 0.0;
+        for (int h = 0; h < store.size(); h++) {
+            int s = store.getStationIndex(h);
+            Assertions.assertEquals(h, store.getHandle(s, store.getDay(h)));
+            Assertions.assertEquals(store.getValue(h),
+                    store.getReading(s, store.getDay(h)));
+            sum += store.getValue(h);
+        }
+        Assertions.assertEquals(1000 * 99.9 / 2 + 2 * 99.5, sum, 1e-6);
+        Assertions.assertTrue(Double.isNaN(store.getReading(0, 2)));
+    }
+
     /**
      * Test that call to getDataTree() in StructureService succeeds and
      * produces accurate results.
@@ -1,7 +1,11 @@
 package edu.georgiasouthern.ceit.aeolus;
 
+import edu.georgiasouthern.ceit.aeolus.kryo.AeolusKryoRegistrator;
+import edu.georgiasouthern.ceit.aeolus.structures.IdwKernel;
 import edu.georgiasouthern.ceit.aeolus.structures.KDTree;
+import edu.georgiasouthern.ceit.aeolus.structures.NeighborTable;
 import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+import edu.georgiasouthern.ceit.aeolus.structures.QuerySource;
 import edu.georgiasouthern.ceit.aeolus.structures.StructureService;
 import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaRDD;
@@ -9,8 +13,9 @@ import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.broadcast.Broadcast;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Preliminary feasibility test for adapting our spatiotemporal interpolation
@@ -22,7 +27,8 @@ public class InterpolationDriver {
 
     public static void main(String[] args) {
 
-        SparkConf sparkConf = new SparkConf().setAppName("Interpolation Test");
+        SparkConf sparkConf = AeolusKryoRegistrator.configure(
+                new SparkConf().setAppName("Interpolation Test"));
         JavaSparkContext sc = new JavaSparkContext(sparkConf);
 
         // Build a KDTree and broadcast it to the executors
@@ -41,32 +47,84 @@ public class InterpolationDriver {
         JavaRDD<String> centroidRecords =
                 sc.textFile("hdfs:///user/jf00936/aeolus/blkgrp_xy.csv", 14);
 
-        // Expand centroid records into an RDD of query points (note
-        // the special method reference... new in Java 8
-        JavaRDD<PMPoint> queries =
-                centroidRecords.flatMap(InterpolationDriver::expandRecord);
+        // the days to estimate, all of 2009 unless given as arguments
+        int firstDay = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int lastDay = args.length > 1 ? Integer.parseInt(args[1]) : 365;
 
-        // necessary cache() call to preserve objects in memory so that result
-        // setEstimate() will persist!
-        queries.cache();
-
-        // Set the estimate for each PMPoint in queries
-        queries.foreach(q ->
-                q.setEstimate(broadcastTree.value().getNearestNeighbors(3, q), 5.0));
+        // Parse the centroids of each partition once into a QuerySource,
+        // and estimate its queries block by block as the results are
+        // written, so no query point is materialized or cached
+        JavaRDD<String> results = centroidRecords.mapPartitions(it -> {
+            QuerySource source = QuerySource.of(it, firstDay, lastDay);
+            KDTree<PMPoint> t = broadcastTree.value();
+            return () -> new Estimates(source, t);
+        });
 
         // Write the result records to a text file in HDFS and exit
-        queries.saveAsTextFile("hdfs:///user/jf00936/aeolus/blkgrp_xy_results");
+        results.saveAsTextFile("hdfs:///user/jf00936/aeolus/blkgrp_xy_results");
     }
 
-    // expand the records in "county_xy.csv" and "blkgrp_xy.csv" to lists of PMPoint
-    // objects which include the scaled time dimension (run with "test_xy.csv" first!)
-    public static List<PMPoint> expandRecord(String record) {
-        List<PMPoint> result = new ArrayList<>();
-        if (record.contains("id,x,y"))
-            return result;
-        for (int i = 1; i <= 365; i++)
-            result.add(PMPoint.queryPoint(record, i));
-        return result;
-    }
+    /*
+     * The result records of the queries of a QuerySource, in the format
+     * of PMPoint.toString(), each estimated from its 3 nearest neighbors
+     * with the power 5.0. Queries are searched in blocks with the batch
+     * search of the tree, so a partition needs one block of coordinates
+     * and neighbors at a time.
+     */
+    private static class Estimates implements Iterator<String> {
+
+        // number of queries searched at once
+        private static final int BLOCK = 4096;
+
+        private final QuerySource source;
+        private final KDTree<PMPoint> tree;
+        private final double[] coordinates = new double[BLOCK * 3];
+
+        // the squared distances and values of the neighbors of a query
+        private final double[] distances = new double[3];
+        private final double[] values = new double[3];
+
+        // the first query of the current block, and the neighbors of it
+        private long first = 0;
+        private NeighborTable table = new NeighborTable(3, 0);
+        private int next = 0;
+
+        Estimates(QuerySource source, KDTree<PMPoint> tree) {
+            this.source = source;
+            this.tree = tree;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return first + next < source.size();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
 
-}
\ No newline at end of file
+            // search the next block once the current one is used up
+            if (next == table.size()) {
+                first += next;
+                next = 0;
+                int count = source.fill(first, coordinates);
+                double[] block = count == BLOCK ? coordinates
+                        : Arrays.copyOf(coordinates, count * 3);
+                table = tree.getNearestNeighbors(3, block, null);
+            }
+
+            int j = next++;
+            int count = table.getNeighborCount(j);
+            for (int i = 0; i < count; i++) {
+                distances[i] = table.getDistanceSquared(j, i);
+                values[i] = tree.getValue(table.getIndex(j, i));
+            }
+            double estimate = IdwKernel.estimate(5.0, distances, values,
+                    count);
+            return PMPoint.valueOf(coordinates[j * 3],
+                    coordinates[j * 3 + 1], coordinates[j * 3 + 2],
+                    estimate).toString();
+        }
+    }
+}
@@ -2,20 +2,22 @@ package edu.georgiasouthern.ceit.aeolus;
 
 import edu.georgiasouthern.ceit.aeolus.kfold.KFoldCalc;
 import edu.georgiasouthern.ceit.aeolus.kfold.KFoldConf;
-import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+import edu.georgiasouthern.ceit.aeolus.kfold.KFoldResult;
+import edu.georgiasouthern.ceit.aeolus.kfold.Metric;
+import edu.georgiasouthern.ceit.aeolus.kryo.AeolusKryoRegistrator;
+import edu.georgiasouthern.ceit.aeolus.structures.Partition;
 import edu.georgiasouthern.ceit.aeolus.structures.StructureService;
 
-import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.SparkConf;
 
 import org.apache.spark.broadcast.Broadcast;
-import scala.Tuple2;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Simple Spark driver that proves feasibility for using the cluster for
@@ -27,7 +29,8 @@ public class KFoldCrossValDriver {
 
     public static void main(String[] args) throws IOException {
 
-        SparkConf sparkConf = new SparkConf().setAppName("Aeolus Project");
+        SparkConf sparkConf = AeolusKryoRegistrator.configure(
+                new SparkConf().setAppName("Aeolus Project"));
         JavaSparkContext sc = new JavaSparkContext(sparkConf);
 
         // set the number of folds
@@ -39,56 +42,65 @@ public class KFoldCrossValDriver {
             for (double P = 1.0; Math.abs(P - 5.1) > 0.05; P += 0.1)
                 kFoldConfs.add(new KFoldConf(folds, N, P));
 
-        // distribute the List of k-fold configurations to all executors
-        JavaRDD<KFoldConf> kFoldConfRDD = sc.parallelize(kFoldConfs);
-        kFoldConfRDD.cache();
-
-        // generate a partition of all PMPoint records and broadcast it
-        PMPoint[][] partition =
-                new StructureService().getRandomPartition(folds);
-        Broadcast<PMPoint[][]> broadcastPartition = sc.broadcast(partition);
+        // split the configurations into one group per executor core; each
+        // group is validated by a single sweep that shares neighbor searches
+        int groupCount = Math.min(kFoldConfs.size(), sc.defaultParallelism());
+        List<List<KFoldConf>> groups = new ArrayList<>();
+        for (int g = 0; g < groupCount; g++)
+            groups.add(new ArrayList<>(kFoldConfs.subList(
+                    g * kFoldConfs.size() / groupCount,
+                    (g + 1) * kFoldConfs.size() / groupCount)));
+
+        // generate a partition of all records, reproducible from the seed
+        // given as the first argument, and broadcast it
+        long seed = args.length > 0 ? Long.parseLong(args[0])
+                                    : new Random().nextLong();
+        System.out.println("Partition seed: " + seed);
+        StructureService service = new StructureService();
+        Partition partition =
+                service.getRandomPartition(service.getDataStore(), folds, seed);
+        Broadcast<Partition> broadcastPartition = sc.broadcast(partition);
+
+        // get MARE and RMSPE statistics for every configuration at once
+        JavaRDD<KFoldResult> resultRDD = sc.parallelize(groups, groupCount)
+                .flatMap(g -> new KFoldCalc().sweep(
+                        broadcastPartition.value(), g, Metric.MARE, Metric.RMSPE));
+        List<KFoldResult> results = resultRDD.collect();
 
 
         // ====================> get MARE statistics <====================
 
-        JavaPairRDD<KFoldConf, Double> mareRDD = kFoldConfRDD.mapToPair(
-                c -> new Tuple2<>(c,
-                        new KFoldCalc().MARE(broadcastPartition.value(), c))
-        );
-        mareRDD.cache();
-
         // print MARE results to stdout
         System.out.println("MARE Results:\n========");
-        JavaRDD<String> mareResultRDD = mareRDD.map(p ->
-                String.format("" + p._1().toString() + " %.7f", p._2()));
-        mareResultRDD.collect().forEach(s -> System.out.println(s));
+        results.forEach(r -> System.out.println(
+                String.format("" + r.getConf().toString() + " %.7f",
+                        r.getValue(Metric.MARE))));
 
         // find the minimum and print the result
-        Tuple2<KFoldConf, Double> minMARE = mareRDD.reduce(
-                (a, b) -> (a._2() <= b._2() ? a : b));
+        KFoldResult minMARE = results.get(0);
+        for (KFoldResult r : results)
+            if (r.getValue(Metric.MARE) < minMARE.getValue(Metric.MARE))
+                minMARE = r;
         System.out.println("Optimum Result (MARE): " +
-                String.format("" + minMARE._1() + " %.7f", minMARE._2()));
+                String.format("" + minMARE.getConf() + " %.7f",
+                        minMARE.getValue(Metric.MARE)));
 
 
         // ====================> get RMSPE statistics <====================
 
-        // get RMSPE statistics
-        JavaPairRDD<KFoldConf, Double> rmspeRDD = kFoldConfRDD.mapToPair(
-                c -> new Tuple2<>(c,
-                        new KFoldCalc().RMSPE(broadcastPartition.value(), c))
-        );
-        rmspeRDD.cache();
-
         // print RMSPE results to stdout
         System.out.println("RMSPE Results:\n=========");
-        JavaRDD<String> rmspeResultRDD = rmspeRDD.map(p ->
-                String.format("" + p._1().toString() + " %.7f", p._2()));
-        rmspeResultRDD.collect().forEach(s -> System.out.println(s));
+        results.forEach(r -> System.out.println(
+                String.format("" + r.getConf().toString() + " %.7f",
+                        r.getValue(Metric.RMSPE))));
 
         // find the minimum and print the result
-        Tuple2<KFoldConf, Double> minRMSPE = rmspeRDD.reduce(
-                (a, b) -> (a._2() <= b._2() ? a : b));
+        KFoldResult minRMSPE = results.get(0);
+        for (KFoldResult r : results)
+            if (r.getValue(Metric.RMSPE) < minRMSPE.getValue(Metric.RMSPE))
+                minRMSPE = r;
         System.out.println("Optimum Result RMSPE: " +
-                String.format("" + minRMSPE._1() + " %.7f", minRMSPE._2()));
+                String.format("" + minRMSPE.getConf() + " %.7f",
+                        minRMSPE.getValue(Metric.RMSPE)));
     }
 }
@@ -1,20 +1,25 @@
 package edu.georgiasouthern.ceit.aeolus;
 
+import edu.georgiasouthern.ceit.aeolus.kfold.FoldTreeCache;
 import edu.georgiasouthern.ceit.aeolus.kfold.KFoldCalc;
 import edu.georgiasouthern.ceit.aeolus.kfold.KFoldConf;
+import edu.georgiasouthern.ceit.aeolus.kfold.KFoldResult;
+import edu.georgiasouthern.ceit.aeolus.kfold.Metric;
+import edu.georgiasouthern.ceit.aeolus.kryo.AeolusKryoRegistrator;
+import edu.georgiasouthern.ceit.aeolus.structures.CsvPointReader;
 import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+import edu.georgiasouthern.ceit.aeolus.structures.Partition;
+import edu.georgiasouthern.ceit.aeolus.structures.PointStore;
 import org.apache.spark.SparkConf;
-import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.broadcast.Broadcast;
-import scala.Tuple2;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Error statistic comparison test between SF-based and IDW-based
@@ -30,7 +35,8 @@ public class KaloComparisonDriver {
 
     public static void main(String[] args) throws IOException {
 
-        SparkConf sparkConf = new SparkConf().setAppName("Kalo Comparison");
+        SparkConf sparkConf = AeolusKryoRegistrator.configure(
+                new SparkConf().setAppName("Kalo Comparison"));
         JavaSparkContext sc = new JavaSparkContext(sparkConf);
 
         // generate list of configurations to test
@@ -46,126 +52,51 @@ public class KaloComparisonDriver {
         kFoldConfRDD.cache();
 
         // retrieve partition from classpath and broadcast it
-        PMPoint[][] partition = new KaloComparisonDriver().getKaloPartition();
-        Broadcast<PMPoint[][]> broadcastPartition = sc.broadcast(partition);
+        Partition partition = new KaloComparisonDriver().getKaloStorePartition();
+        Broadcast<Partition> broadcastPartition = sc.broadcast(partition);
 
         // build result String to summarize error statistics
         String result = "Error statistics for \"c = 0.1086\":\n";
 
 
-        // ====================> get MAE statistic <====================
+        // ====================> get all statistics in one pass <====================
+        // (the folds of each configuration run on all cores of its executor)
 
-        JavaPairRDD<KFoldConf, Double> maeRDD = kFoldConfRDD.mapToPair(
-                c -> new Tuple2<>(c,
-                        new KFoldCalc().MAE(broadcastPartition.value(), c))
+        Metric[] metrics =
+                {Metric.MAE, Metric.MSE, Metric.RMSE, Metric.MARE, Metric.CVRS};
+        JavaRDD<KFoldResult> resultRDD = kFoldConfRDD.map(
+                c -> new KFoldCalc(FoldTreeCache.getInstance(),
+                        ForkJoinPool.commonPool())
+                        .evaluate(broadcastPartition.value(), c, metrics)
         );
-        maeRDD.cache();
-
-        // print all elements of the
-        System.out.println("MAE Results:");
-        maeRDD.collect().forEach(x -> System.out.println(x._1().toString() + x._2()));
-
-        // find the minimum and print the result
-        Tuple2<KFoldConf, Double> minMAE = maeRDD.reduce(
-                (a, b) -> (a._2() <= b._2() ? a : b));
-        result += ("Optimum Result (MAE):\t" +
-                String.format("" + minMAE._1() + " %.7f\t", minMAE._2()) + "\n");
-        maeRDD.unpersist();
-
-
-        // ====================> get MSE statistic <====================
-
-        JavaPairRDD<KFoldConf, Double> mseRDD = kFoldConfRDD.mapToPair(
-                c -> new Tuple2<>(c,
-                        new KFoldCalc().MSE(broadcastPartition.value(), c))
-        );
-        mseRDD.cache();
-
-        // print all elements of the
-        System.out.println("MSE Results:");
-        mseRDD.collect().forEach(x -> System.out.println(x._1().toString() + x._2()));
-
-        // find the minimum and print the result
-        Tuple2<KFoldConf, Double> minMSE = mseRDD.reduce(
-                (a, b) -> (a._2() <= b._2() ? a : b));
-        result += ("Optimum Result (MSE):\t" +
-                String.format("" + minMSE._1() + " %.7f\t", minMSE._2()) + "\n");
-        mseRDD.unpersist();
-
-
-        // ====================> get RMSE statistic <====================
-
-        JavaPairRDD<KFoldConf, Double> rmseRDD = kFoldConfRDD.mapToPair(
-                c -> new Tuple2<>(c,
-                        new KFoldCalc().RMSE(broadcastPartition.value(), c))
-        );
-        rmseRDD.cache();
-
-        // print all elements of the
-        System.out.println("RMSE Results:");
-        rmseRDD.collect().forEach(x -> System.out.println(x._1().toString() + x._2()));
-
-
-        // find the minimum and print the result
-        Tuple2<KFoldConf, Double> minRMSE = rmseRDD.reduce(
-                (a, b) -> (a._2() <= b._2() ? a : b));
-        result += ("Optimum Result (RMSE):\t" +
-                String.format("" + minRMSE._1() + " %.7f\t", minRMSE._2()) + "\n");
-        rmseRDD.unpersist();
-
-
-        // ====================> get MARE statistic <====================
-
-        JavaPairRDD<KFoldConf, Double> mareRDD = kFoldConfRDD.mapToPair(
-                c -> new Tuple2<>(c,
-                        new KFoldCalc().MARE(broadcastPartition.value(), c))
-        );
-        mareRDD.cache();
-
-        // print all elements of the
-        System.out.println("MARE Results:");
-        mareRDD.collect().forEach(x -> System.out.println(x._1().toString() + x._2()));
-
-        // find the minimum and add to result
-        Tuple2<KFoldConf, Double> minMARE = mareRDD.reduce(
-                (a, b) -> (a._2() <= b._2() ? a : b));
-        result += ("Optimum Result (MARE):\t" +
-                String.format("" + minMARE._1() + " %.7f\t", minMARE._2()) + "\n");
-        mareRDD.unpersist();
-
-        // Show result as one block
-        System.out.print(result);
-
-        // ====================> get CVRS statistic <====================
-
-        JavaPairRDD<KFoldConf, Double> cvrsRDD = kFoldConfRDD.mapToPair(
-                c -> new Tuple2<>(c,
-                        new KFoldCalc().CVRS(broadcastPartition.value(), c))
-        );
-        cvrsRDD.cache();
-
-        // print all elements of the
-        System.out.println("CVRS Results:");
-        cvrsRDD.collect().forEach(x -> System.out.println(x._1().toString() + x._2()));
-
-        // print all elements of the
-        // find the maximum for all configurations and print the result
-        Tuple2<KFoldConf, Double> maxCVRS = cvrsRDD.reduce(
-                (a, b) -> (a._2() >= b._2() ? a : b));
-        result += ("Optimum Result (CVRS):\t" +
-                String.format("" + maxCVRS._1() + " %.7f\t", maxCVRS._2()) + "\n");
-        cvrsRDD.unpersist();
+        List<KFoldResult> results = resultRDD.collect();
+
+        for (Metric m : metrics) {
+
+            // print all results for this statistic
+            System.out.println(m + " Results:");
+            results.forEach(x -> System.out.println(x.getConf().toString() + x.getValue(m)));
+
+            // find the optimum for all configurations and add to result
+            KFoldResult best = results.get(0);
+            for (KFoldResult x : results)
+                if (m.isMaximized() ? x.getValue(m) > best.getValue(m)
+                                    : x.getValue(m) < best.getValue(m))
+                    best = x;
+            result += ("Optimum Result (" + m + "):\t" +
+                    String.format("" + best.getConf() + " %.7f\t", best.getValue(m)) + "\n");
+        }
 
         // Show result as one block
         System.out.print(result);
     }
 
     /*
-     * Special method for loading the partition shared with Marc Kalo.
+     * Special method for loading the partition shared with Marc Kalo. Its
+     * file lists the 10 folds one after another, the first size % 10 folds
+     * holding one more record than the others.
      */
-    public PMPoint[][] getKaloPartition() throws IOException {
-
-        List<PMPoint> points = new ArrayList<>();
+    public Partition getKaloStorePartition() throws IOException {
 
         // Create InputStream from CLASSPATH resource
         InputStream rStream = this.getClass().getResourceAsStream(
@@ -173,31 +104,26 @@ public class KaloComparisonDriver {
         if (rStream == null)
             throw new IOException("CLASSPATH resource not found.");
 
-        // Read and store PMPoint objects
-        Scanner s = new Scanner(rStream);
-        s.nextLine();
-        while (s.hasNextLine())
-            points.add(PMPoint.dataPoint(s.nextLine()));
-
-        // declare result, a jagged array
-        PMPoint[][] result = new PMPoint[10][];
-
-        // manually specify the remaining dimensions of result
-        int l = points.size() / 10;
-        int r = points.size() % 10;
-        for (int i = 0; i < 10; i++)
-            if (i < r)
-                result[i] = new PMPoint[l + 1];
-            else
-                result[i] = new PMPoint[l];
-
-        // fill result with the contents of pointList
-        for (int row = 0; row < 10; row++) {
-            for (int col = 0; col < result[row].length; col++)
-                if (points.size() > 0)
-                    result[row][col] = points.remove(0);
+        // Read the records and cut them into folds
+        try (InputStream in = rStream) {
+            return Partition.contiguous(
+                    CsvPointReader.read(in, ForkJoinPool.commonPool()), 10);
         }
+    }
 
+    /*
+     * The partition of getKaloStorePartition() as a jagged array of
+     * PMPoint objects.
+     */
+    public PMPoint[][] getKaloPartition() throws IOException {
+        Partition partition = getKaloStorePartition();
+        PointStore store = partition.getStore();
+        PMPoint[][] result = new PMPoint[partition.getFoldCount()][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new PMPoint[partition.getFoldSize(i)];
+            for (int m = 0; m < result[i].length; m++)
+                result[i][m] = store.getPoint(partition.getHandle(i, m));
+        }
         return result;
     }
 }
@@ -8,10 +8,6 @@ import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
 import edu.georgiasouthern.ceit.aeolus.structures.StructureService;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
 
 /**
  * Generates the interpolated values for the data set "pm25_2009_measured.csv".
@@ -39,41 +35,7 @@ public class KaloInterpolationDriver {
      * Special method for loading the partition shared with Marc Kalo.
      */
     public PMPoint[][] getKaloPartition() throws IOException {
-
-        List<PMPoint> points = new ArrayList<>();
-
-        // Create InputStream from CLASSPATH resource
-        InputStream rStream = this.getClass().getResourceAsStream(
-                "/kalo_partition.csv");
-        if (rStream == null)
-            throw new IOException("CLASSPATH resource not found.");
-
-        // Read and store PMPoint objects
-        Scanner s = new Scanner(rStream);
-        s.nextLine();
-        while (s.hasNextLine())
-            points.add(PMPoint.dataPoint(s.nextLine()));
-
-        // declare result, a jagged array
-        PMPoint[][] result = new PMPoint[10][];
-
-        // manually specify the remaining dimensions of result
-        int l = points.size() / 10;
-        int r = points.size() % 10;
-        for (int i = 0; i < 10; i++)
-            if (i < r)
-                result[i] = new PMPoint[l + 1];
-            else
-                result[i] = new PMPoint[l];
-
-        // fill result with the contents of pointList
-        for (int row = 0; row < 10; row++) {
-            for (int col = 0; col < result[row].length; col++)
-                if (points.size() > 0)
-                    result[row][col] = points.remove(0);
-        }
-
-        return result;
+        return new KaloComparisonDriver().getKaloPartition();
     }
 
 }
@@ -0,0 +1,50 @@
+package edu.georgiasouthern.ceit.aeolus.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import edu.georgiasouthern.ceit.aeolus.kfold.KFoldConf;
+import edu.georgiasouthern.ceit.aeolus.structures.ColumnarPointStore;
+import edu.georgiasouthern.ceit.aeolus.structures.KDTree;
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+import edu.georgiasouthern.ceit.aeolus.structures.Partition;
+import edu.georgiasouthern.ceit.aeolus.structures.StationStore;
+import org.apache.spark.SparkConf;
+import org.apache.spark.serializer.KryoRegistrator;
+
+/**
+ * Registers the Kryo serializers of our data types with Spark, so that
+ * broadcast partitions and trees are written as packed primitives rather
+ * than through Java serialization.
+ *
+ * @author Jason Franklin
+ */
+public class AeolusKryoRegistrator implements KryoRegistrator {
+
+    @Override
+    public void registerClasses(Kryo kryo) {
+        kryo.register(PMPoint.class, new PMPointSerializer());
+        kryo.register(PMPoint[].class, new PMPointArraySerializer());
+        kryo.register(PMPoint[][].class, new PartitionSerializer());
+        kryo.register(KDTree.class, new KDTreeSerializer());
+        kryo.register(KFoldConf.class, new KFoldConfSerializer());
+
+        // handle-based partitions are primitive arrays, which the default
+        // field serializer already writes packed
+        kryo.register(Partition.class);
+        kryo.register(ColumnarPointStore.class);
+        kryo.register(StationStore.class);
+    }
+
+    /**
+     * Configure sparkConf to serialize data with Kryo and this registrator.
+     *
+     * @param sparkConf the configuration of a driver
+     * @return sparkConf
+     */
+    public static SparkConf configure(SparkConf sparkConf) {
+        return sparkConf
+                .set("spark.serializer",
+                        "org.apache.spark.serializer.KryoSerializer")
+                .set("spark.kryo.registrator",
+                        AeolusKryoRegistrator.class.getName());
+    }
+}
@@ -0,0 +1,67 @@
+package edu.georgiasouthern.ceit.aeolus.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import edu.georgiasouthern.ceit.aeolus.structures.KDTree;
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Kryo serializer for a KDTree of PMPoints, written as a flat array of
+ * nodes: the dimension, the node count and whether the tree is labelled,
+ * then for each node its packed tuple, its child indices and its label.
+ * Child indices are written plus one, so a missing child costs a single
+ * byte. Reading restores the tree node for node with KDTree.fromNodes(),
+ * without recursion and without rebuilding it.
+ * <p>
+ * A PMPoint holds a single value, so a tree over a store with more than
+ * one variable cannot be written; it is rejected rather than silently
+ * losing all but its first variable. Such trees are shipped as index
+ * files (see MappedKDTree) or rebuilt from their store.
+ *
+ * @author Jason Franklin
+ */
+public class KDTreeSerializer extends Serializer<KDTree<PMPoint>> {
+
+    @Override
+    public void write(Kryo kryo, Output output, KDTree<PMPoint> tree) {
+        if (tree.getVariableCount() != 1)
+            throw new IllegalArgumentException();
+        int n = tree.size();
+        output.writeInt(tree.getDimension(), true);
+        output.writeInt(n, true);
+        output.writeBoolean(tree.isLabelled());
+        for (int i = 0; i < n; i++) {
+            PMPointSerializer.writePoint(output, tree.getElement(i));
+            output.writeInt(tree.getLeft(i) + 1, true);
+            output.writeInt(tree.getRight(i) + 1, true);
+            if (tree.isLabelled())
+                output.writeInt(tree.getLabel(i), true);
+        }
+    }
+
+    @Override
+    public KDTree<PMPoint> read(Kryo kryo, Input input,
+                                Class<KDTree<PMPoint>> type) {
+        int dimension = input.readInt(true);
+        int n = input.readInt(true);
+        boolean labelled = input.readBoolean();
+
+        List<PMPoint> elements = new ArrayList<>(n);
+        int[] left = new int[n];
+        int[] right = new int[n];
+        int[] labels = labelled ? new int[n] : null;
+        for (int i = 0; i < n; i++) {
+            elements.add(PMPointSerializer.readPoint(input));
+            left[i] = input.readInt(true) - 1;
+            right[i] = input.readInt(true) - 1;
+            if (labelled)
+                labels[i] = input.readInt(true);
+        }
+        return KDTree.fromNodes(dimension, elements, left, right, labels);
+    }
+}
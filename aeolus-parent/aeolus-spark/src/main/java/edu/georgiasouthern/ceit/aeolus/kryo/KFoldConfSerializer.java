@@ -0,0 +1,44 @@
+package edu.georgiasouthern.ceit.aeolus.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import edu.georgiasouthern.ceit.aeolus.kfold.KFoldConf;
+
+/**
+ * Kryo serializer writing the parameters of a KFoldConf in a fixed
+ * order.
+ *
+ * @author Jason Franklin
+ */
+public class KFoldConfSerializer extends Serializer<KFoldConf> {
+
+    public KFoldConfSerializer() {
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, KFoldConf conf) {
+        output.writeInt(conf.getFOLDS(), true);
+        output.writeInt(conf.getNEIGHBORS(), true);
+        output.writeDouble(conf.getPOWER());
+        output.writeDouble(conf.getTIME_SCALE());
+        output.writeDouble(conf.getALPHA());
+        output.writeInt(conf.getBAGS(), true);
+        output.writeLong(conf.getSEED());
+    }
+
+    @Override
+    public KFoldConf read(Kryo kryo, Input input, Class<KFoldConf> type) {
+        int folds = input.readInt(true);
+        int neighbors = input.readInt(true);
+        double power = input.readDouble();
+        double timeScale = input.readDouble();
+        double alpha = input.readDouble();
+        int bags = input.readInt(true);
+        long seed = input.readLong();
+        return new KFoldConf(folds, neighbors, power, timeScale, alpha, bags,
+                seed);
+    }
+}
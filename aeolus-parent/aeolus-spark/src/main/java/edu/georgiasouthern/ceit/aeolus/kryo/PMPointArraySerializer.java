@@ -0,0 +1,41 @@
+package edu.georgiasouthern.ceit.aeolus.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+
+/**
+ * Kryo serializer writing a PMPoint[] as its length followed by the
+ * packed tuples of its points.
+ *
+ * @author Jason Franklin
+ */
+public class PMPointArraySerializer extends Serializer<PMPoint[]> {
+
+    @Override
+    public void write(Kryo kryo, Output output, PMPoint[] points) {
+        writePoints(output, points);
+    }
+
+    @Override
+    public PMPoint[] read(Kryo kryo, Input input, Class<PMPoint[]> type) {
+        return readPoints(input);
+    }
+
+    // write the length and tuples of points
+    static void writePoints(Output output, PMPoint[] points) {
+        output.writeInt(points.length, true);
+        for (PMPoint p : points)
+            PMPointSerializer.writePoint(output, p);
+    }
+
+    // read an array written by writePoints()
+    static PMPoint[] readPoints(Input input) {
+        PMPoint[] points = new PMPoint[input.readInt(true)];
+        for (int i = 0; i < points.length; i++)
+            points[i] = PMPointSerializer.readPoint(input);
+        return points;
+    }
+}
@@ -0,0 +1,42 @@
+package edu.georgiasouthern.ceit.aeolus.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+
+/**
+ * Kryo serializer writing a PMPoint as the four doubles of its tuple,
+ * with no class descriptor or field names.
+ *
+ * @author Jason Franklin
+ */
+public class PMPointSerializer extends Serializer<PMPoint> {
+
+    public PMPointSerializer() {
+        setImmutable(true);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, PMPoint p) {
+        writePoint(output, p);
+    }
+
+    @Override
+    public PMPoint read(Kryo kryo, Input input, Class<PMPoint> type) {
+        return readPoint(input);
+    }
+
+    // write the tuple of p
+    static void writePoint(Output output, PMPoint p) {
+        for (int i = 0; i < 4; i++)
+            output.writeDouble(p.get(i));
+    }
+
+    // read a tuple written by writePoint()
+    static PMPoint readPoint(Input input) {
+        return PMPoint.valueOf(input.readDouble(), input.readDouble(),
+                input.readDouble(), input.readDouble());
+    }
+}
@@ -0,0 +1,32 @@
+package edu.georgiasouthern.ceit.aeolus.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import edu.georgiasouthern.ceit.aeolus.structures.PMPoint;
+
+/**
+ * Kryo serializer for the PMPoint[][] partitions broadcast by the cross
+ * validation drivers: the number of folds, then each fold as a packed
+ * PMPoint[].
+ *
+ * @author Jason Franklin
+ */
+public class PartitionSerializer extends Serializer<PMPoint[][]> {
+
+    @Override
+    public void write(Kryo kryo, Output output, PMPoint[][] partition) {
+        output.writeInt(partition.length, true);
+        for (PMPoint[] fold : partition)
+            PMPointArraySerializer.writePoints(output, fold);
+    }
+
+    @Override
+    public PMPoint[][] read(Kryo kryo, Input input, Class<PMPoint[][]> type) {
+        PMPoint[][] partition = new PMPoint[input.readInt(true)][];
+        for (int i = 0; i < partition.length; i++)
+            partition[i] = PMPointArraySerializer.readPoints(input);
+        return partition;
+    }
+}